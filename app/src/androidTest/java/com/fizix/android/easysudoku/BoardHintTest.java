@@ -0,0 +1,59 @@
+package com.fizix.android.easysudoku;
+
+import android.test.AndroidTestCase;
+
+import java.util.Random;
+
+public class BoardHintTest extends AndroidTestCase {
+
+    private Generator mGenerator;
+    private Board mBoard;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mGenerator = new Generator(new Random());
+        mBoard = new Board(Board.DIFFICULTY_EASY);
+    }
+
+    // Restore the board to the puzzle of |seed|, and return its solution.
+    private byte[] restorePuzzle(long seed) {
+        final byte[] puzzle = new byte[81];
+        final byte[] solution = new byte[81];
+        mGenerator.generate(puzzle, solution, Board.DIFFICULTY_EASY, seed);
+
+        final Grid grid = new Grid();
+        grid.setNumbers(puzzle, true);
+        mBoard.restore(grid);
+        return solution;
+    }
+
+    private void assertHintFrom(byte[] solution) {
+        final Board.Hint hint = mBoard.nextHint(Long.MAX_VALUE / 2);
+        assertNotNull(hint);
+        assertEquals(hint.toString(), solution[(hint.y - 1) * 9 + (hint.x - 1)], hint.number);
+    }
+
+    public void testHintMatchesSolution() {
+        assertHintFrom(restorePuzzle(1));
+    }
+
+    public void testRestoreForgetsSolution() {
+        assertHintFrom(restorePuzzle(1));
+
+        // The solution of the first puzzle was worked out, but does not belong to the second.
+        assertHintFrom(restorePuzzle(2));
+    }
+
+    public void testNoHintWithoutSolution() {
+        // Two ones in the first row.
+        final Grid grid = new Grid();
+        grid.setGiven(0, 1);
+        grid.setGiven(1, 1);
+        mBoard.restore(grid);
+
+        assertNull(mBoard.nextHint(Long.MAX_VALUE / 2));
+    }
+
+}
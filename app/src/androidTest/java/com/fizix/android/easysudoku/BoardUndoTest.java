@@ -0,0 +1,122 @@
+package com.fizix.android.easysudoku;
+
+import android.test.AndroidTestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BoardUndoTest extends AndroidTestCase {
+
+    private Board mBoard;
+
+    // A cell that is given and one that is empty in the puzzle.
+    private int mGivenX;
+    private int mGivenY;
+    private int mEmptyX;
+    private int mEmptyY;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        // A full grid with every other cell given.
+        byte[] numbers = new byte[81];
+        Generator.fillGrid(numbers);
+        Grid grid = new Grid();
+        for (int i = 0; i < 81; i += 2) {
+            grid.setGiven(i, numbers[i]);
+        }
+
+        mBoard = new Board(Board.DIFFICULTY_EASY);
+        mBoard.restore(grid);
+
+        mGivenX = 1;
+        mGivenY = 1;
+        mEmptyX = 2;
+        mEmptyY = 1;
+        assertTrue(mBoard.isGivenAt(mGivenX, mGivenY));
+        assertEquals(0, mBoard.getNumberAt(mEmptyX, mEmptyY));
+    }
+
+    public void testNewBoardHasNothingToUndo() {
+        final Board board = new Board(Board.DIFFICULTY_EASY);
+        final Grid before = board.snapshot();
+
+        assertFalse(board.canUndo());
+        assertFalse(board.undo());
+        assertEquals(before, board.snapshot());
+    }
+
+    public void testUndoRedoRoundTrip() {
+        List<Grid> states = new ArrayList<>();
+        states.add(mBoard.snapshot());
+
+        // Marks first, so placing numbers also takes marks off their peers.
+        mBoard.setMarksAt(4, 1, (1 << 3) | (1 << 5));
+        states.add(mBoard.snapshot());
+        mBoard.toggleMarkAt(mEmptyX, mEmptyY, 3);
+        states.add(mBoard.snapshot());
+        mBoard.setNumberAt(mEmptyX, mEmptyY, 3);
+        states.add(mBoard.snapshot());
+        mBoard.setNumberAt(mEmptyX, mEmptyY, 5);
+        states.add(mBoard.snapshot());
+        mBoard.setActionNumber(0);
+        mBoard.setSelectedBlock(mEmptyX, mEmptyY);
+        states.add(mBoard.snapshot());
+        mBoard.setNotesMode(true);
+        mBoard.setActionNumber(7);
+        mBoard.setSelectedBlock(6, 1);
+        states.add(mBoard.snapshot());
+
+        for (int i = states.size() - 2; i >= 0; i--) {
+            assertTrue(mBoard.undo());
+            assertEquals("Undo to state " + i, states.get(i), mBoard.snapshot());
+        }
+        assertFalse(mBoard.canUndo());
+
+        for (int i = 1; i < states.size(); i++) {
+            assertTrue(mBoard.redo());
+            assertEquals("Redo to state " + i, states.get(i), mBoard.snapshot());
+        }
+        assertFalse(mBoard.canRedo());
+    }
+
+    public void testGivenCanNotBeChanged() {
+        final Grid before = mBoard.snapshot();
+        final int given = mBoard.getNumberAt(mGivenX, mGivenY);
+
+        mBoard.setNumberAt(mGivenX, mGivenY, 0);
+        mBoard.setNumberAt(mGivenX, mGivenY, given % 9 + 1);
+        mBoard.setMarksAt(mGivenX, mGivenY, 1 << 4);
+
+        // The eraser.
+        mBoard.setActionNumber(0);
+        mBoard.setSelectedBlock(mGivenX, mGivenY);
+
+        assertEquals(given, mBoard.getNumberAt(mGivenX, mGivenY));
+        assertTrue(mBoard.isGivenAt(mGivenX, mGivenY));
+        assertEquals(before, mBoard.snapshot());
+        assertFalse(mBoard.canUndo());
+    }
+
+    public void testGivensSurviveUndoAndRedo() {
+        final Grid before = mBoard.snapshot();
+
+        mBoard.setNumberAt(mEmptyX, mEmptyY, 1);
+        mBoard.setNumberAt(mEmptyX, mEmptyY, 0);
+        mBoard.setNumberAt(mGivenX, mGivenY, 0);
+
+        while (mBoard.undo()) {
+            // Undo everything.
+        }
+        assertEquals(before, mBoard.snapshot());
+
+        while (mBoard.redo()) {
+            // Redo everything.
+        }
+        assertTrue(mBoard.isGivenAt(mGivenX, mGivenY));
+        assertEquals(before.get(0), mBoard.getNumberAt(mGivenX, mGivenY));
+        assertEquals(0, mBoard.getNumberAt(mEmptyX, mEmptyY));
+    }
+
+}
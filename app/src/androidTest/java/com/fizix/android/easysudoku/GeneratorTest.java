@@ -0,0 +1,88 @@
+package com.fizix.android.easysudoku;
+
+import android.test.AndroidTestCase;
+
+import java.util.Arrays;
+import java.util.Random;
+
+public class GeneratorTest extends AndroidTestCase {
+
+    private static final int PUZZLES_PER_DIFFICULTY = 10;
+
+    private static final int[] DIFFICULTIES = {
+            Board.DIFFICULTY_EASY, Board.DIFFICULTY_MEDIUM, Board.DIFFICULTY_HARD
+    };
+
+    private final byte[] mPuzzle = new byte[81];
+    private final byte[] mSolution = new byte[81];
+    private final Rater mRater = new Rater();
+    private final Solver mSolver = new Solver();
+
+    // |mPuzzle| has exactly one solution, |mSolution|, and files under |difficulty|.
+    private void assertPuzzleOf(int difficulty, int rating) {
+        assertEquals(rating, mRater.rate(mPuzzle));
+        assertEquals("Rating " + rating, difficulty, Generator.getDifficulty(rating));
+
+        assertTrue(mSolver.setPuzzle(mPuzzle));
+        assertEquals(1, mSolver.countSolutions(2));
+        for (int i = 0; i < 81; i++) {
+            assertTrue(mPuzzle[i] == 0 || mPuzzle[i] == mSolution[i]);
+        }
+    }
+
+    public void testSeededPuzzlesMatchDifficulty() {
+        final Generator generator = new Generator(new Random());
+        for (int difficulty : DIFFICULTIES) {
+            for (int i = 0; i < PUZZLES_PER_DIFFICULTY; i++) {
+                final int rating = generator.generate(mPuzzle, mSolution, difficulty, 1000 + i);
+                assertPuzzleOf(difficulty, rating);
+            }
+        }
+    }
+
+    public void testPuzzlesMatchDifficulty() {
+        final Generator generator = new Generator(new Random(7));
+        for (int difficulty : DIFFICULTIES) {
+            for (int i = 0; i < PUZZLES_PER_DIFFICULTY; i++) {
+                final int rating = generator.generate(mPuzzle, mSolution, difficulty);
+                assertPuzzleOf(difficulty, rating);
+            }
+        }
+    }
+
+    public void testSameSeedGivesSamePuzzle() {
+        final Generator generator = new Generator(new Random());
+        generator.generate(mPuzzle, mSolution, Board.DIFFICULTY_HARD, 42);
+        final byte[] first = mPuzzle.clone();
+
+        // Whatever was generated in between.
+        generator.generate(mPuzzle, mSolution, Board.DIFFICULTY_MEDIUM);
+        generator.generate(mPuzzle, mSolution, Board.DIFFICULTY_HARD, 42);
+        assertTrue(Arrays.equals(first, mPuzzle));
+    }
+
+    public void testSeededPuzzleKeepsRandomNumbers() {
+        final Generator generator = new Generator(new Random(5));
+        generator.generate(mPuzzle, mSolution, Board.DIFFICULTY_EASY);
+        generator.generate(mPuzzle, mSolution, Board.DIFFICULTY_EASY, 42);
+        generator.generate(mPuzzle, mSolution, Board.DIFFICULTY_EASY);
+
+        // The same puzzles without the seeded one in between.
+        final Generator unseeded = new Generator(new Random(5));
+        final byte[] puzzle = new byte[81];
+        unseeded.generate(puzzle, mSolution, Board.DIFFICULTY_EASY);
+        unseeded.generate(puzzle, mSolution, Board.DIFFICULTY_EASY);
+        assertTrue(Arrays.equals(puzzle, mPuzzle));
+    }
+
+    public void testDifficultyRangesDoNotOverlap() {
+        for (int i = 1; i < DIFFICULTIES.length; i++) {
+            assertTrue(Generator.getMaxTechnique(DIFFICULTIES[i - 1]) < Generator.getMinTechnique(DIFFICULTIES[i]));
+        }
+        for (int difficulty : DIFFICULTIES) {
+            assertEquals(difficulty, Generator.getDifficulty(Generator.getMinTechnique(difficulty)));
+            assertEquals(difficulty, Generator.getDifficulty(Generator.getMaxTechnique(difficulty)));
+        }
+    }
+
+}
@@ -0,0 +1,240 @@
+package com.fizix.android.easysudoku;
+
+import android.test.AndroidTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Random;
+
+public class MoveJournalTest extends AndroidTestCase {
+
+    private File mFile;
+    private MoveJournal mJournal;
+    private Board mBoard;
+
+    // The board as it was when it was last saved to the database.
+    private Grid mSaved;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mFile = new File(getContext().getCacheDir(), "test.journal");
+        mFile.delete();
+        new File(mFile.getPath() + ".tmp").delete();
+
+        mJournal = new MoveJournal(mFile);
+        assertTrue(mJournal.open());
+
+        // A puzzle with every other cell given, the first thing in the journal.
+        byte[] numbers = new byte[81];
+        Generator.fillGrid(numbers);
+        Grid grid = new Grid();
+        for (int i = 0; i < 81; i += 2) {
+            grid.setGiven(i, numbers[i]);
+        }
+
+        mBoard = new Board(Board.DIFFICULTY_EASY);
+        mBoard.setJournal(mJournal);
+        mBoard.restore(grid);
+        mSaved = mBoard.snapshot();
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mJournal.close();
+        mFile.delete();
+        super.tearDown();
+    }
+
+    // Numbers, marks, erasing and undo, so replaying flips instead of values would go wrong.
+    private void play() {
+        mBoard.setMarksAt(2, 1, (1 << 2) | (1 << 6));
+        mBoard.toggleMarkAt(2, 1, 6);
+        mBoard.setMarksAt(4, 1, 1 << 6);
+        mBoard.setNumberAt(2, 2, 6);
+        mBoard.setNumberAt(6, 1, 3);
+        mBoard.setNumberAt(6, 1, 0);
+        mBoard.undo();
+        mBoard.toggleMarkAt(8, 1, 9);
+    }
+
+    // What a restarted process gets: the saved state with a new journal replayed on top.
+    private Grid replay(Grid saved) {
+        mJournal.close();
+        mJournal = new MoveJournal(mFile);
+        assertTrue(mJournal.open());
+
+        Grid grid = new Grid(saved);
+        mJournal.replay(grid);
+        return grid;
+    }
+
+    public void testReplayRebuildsBoard() {
+        play();
+        assertEquals(mBoard.snapshot(), replay(mSaved));
+    }
+
+    public void testReplayAfterSaveBeforeCompact() {
+        // Killed after the save was written, but before the journal was compacted, so the saved
+        // state already has every record in the journal.
+        play();
+        final Grid saved = mBoard.snapshot();
+        assertEquals(saved, replay(saved));
+    }
+
+    public void testCompactKeepsLaterRecords() {
+        mBoard.setNumberAt(2, 1, 4);
+        mBoard.setMarksAt(4, 1, 1 << 5);
+        final long position = mJournal.getPosition();
+        final Grid saved = mBoard.snapshot();
+
+        play();
+        final long before = mFile.length();
+        mJournal.compact(position);
+        assertTrue(mFile.length() < before);
+
+        assertEquals(mBoard.snapshot(), replay(saved));
+    }
+
+    public void testCompactWhileAppending() throws InterruptedException {
+        // The last saved board and the journal position it was taken at, as the save thread sees
+        // them.
+        final Object lock = new Object();
+        final Grid[] saved = {mSaved};
+        final long[] position = {mJournal.getPosition()};
+
+        final boolean[] done = {false};
+        Thread compactor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                while (true) {
+                    final long savedPosition;
+                    synchronized (lock) {
+                        if (done[0]) {
+                            return;
+                        }
+                        savedPosition = position[0];
+                    }
+                    mJournal.compact(savedPosition);
+                }
+            }
+        });
+        compactor.start();
+
+        for (int i = 0; i < 2000; i++) {
+            final int index = (i * 7) % 81;
+            final int x = index % 9 + 1;
+            final int y = index / 9 + 1;
+            if (i % 3 == 0) {
+                mBoard.setMarksAt(x, y, (i % 0x3FF) << 1);
+            } else {
+                mBoard.setNumberAt(x, y, i % 10);
+            }
+
+            if (i % 50 == 0) {
+                synchronized (lock) {
+                    saved[0] = mBoard.snapshot();
+                    position[0] = mJournal.getPosition();
+                }
+            }
+        }
+
+        synchronized (lock) {
+            done[0] = true;
+        }
+        compactor.join();
+
+        assertEquals(mBoard.snapshot(), replay(saved[0]));
+    }
+
+    public void testSeedSurvivesSave() {
+        final byte[] puzzle = new byte[81];
+        final byte[] solution = new byte[81];
+        new Generator(new Random()).generate(puzzle, solution, Board.DIFFICULTY_EASY, 42);
+        mBoard.setLoaded();
+        mBoard.setSeededPuzzle(42, puzzle, solution);
+
+        final Board.SavedState state = mBoard.createSavedState();
+        assertTrue(state.hasSeed);
+        assertEquals(42, state.seed);
+
+        final Board board = new Board(Board.DIFFICULTY_EASY);
+        board.applySavedState(state);
+        assertTrue(board.hasSeed());
+        assertEquals(42, board.getSeed());
+    }
+
+    public void testReplayKeepsSeed() {
+        final byte[] puzzle = new byte[81];
+        final byte[] solution = new byte[81];
+        new Generator(new Random()).generate(puzzle, solution, Board.DIFFICULTY_EASY, 42);
+
+        // Killed after a new puzzle was started, before it was saved.
+        mBoard.setSeededPuzzle(42, puzzle, solution);
+        mBoard.setNumberAt(2, 1, 4);
+        assertEquals(mBoard.snapshot(), replay(mSaved));
+        assertTrue(mJournal.hasReplayedSnapshot());
+        assertTrue(mJournal.hasReplayedSeed());
+        assertEquals(42, mJournal.getReplayedSeed());
+
+        // A puzzle that was not generated from a seed replaces it.
+        mBoard.setJournal(mJournal);
+        mBoard.restore(mSaved);
+        replay(mSaved);
+        assertTrue(mJournal.hasReplayedSnapshot());
+        assertFalse(mJournal.hasReplayedSeed());
+    }
+
+    public void testKillDuringCompactKeepsJournal() throws IOException {
+        play();
+
+        // Killed while the compacted journal was being written, before it replaced the old one.
+        final File temp = new File(mFile.getPath() + ".tmp");
+        FileOutputStream out = new FileOutputStream(temp);
+        try {
+            out.write(new byte[]{1, 2, 3, 4, 5});
+        } finally {
+            out.close();
+        }
+
+        assertEquals(mBoard.snapshot(), replay(mSaved));
+        assertFalse(temp.exists());
+    }
+
+    public void testTornRecordIsDropped() throws IOException {
+        play();
+        final Grid expected = mBoard.snapshot();
+
+        // Killed half way through writing a record.
+        FileOutputStream out = new FileOutputStream(mFile, true);
+        try {
+            out.write(new byte[]{5, 1});
+        } finally {
+            out.close();
+        }
+
+        assertEquals(expected, replay(mSaved));
+
+        // New records go after the last good one.
+        mBoard.setJournal(mJournal);
+        mBoard.setNumberAt(8, 2, 7);
+        assertEquals(mBoard.snapshot(), replay(mSaved));
+    }
+
+    public void testOldJournalIsDropped() throws IOException {
+        mJournal.close();
+
+        // Moves in the format from before the header.
+        FileOutputStream out = new FileOutputStream(mFile);
+        try {
+            out.write(new byte[]{1, 0x20, 0, 0, 2, 0x28, 0, 0});
+        } finally {
+            out.close();
+        }
+
+        assertEquals(mSaved, replay(mSaved));
+    }
+
+}
@@ -0,0 +1,121 @@
+package com.fizix.android.easysudoku;
+
+import android.content.Context;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import com.fizix.android.easysudoku.data.DbHelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class PuzzleBankTest extends AndroidTestCase {
+
+    private Context mContext;
+    private DbHelper mDbHelper;
+    private File mPackFile;
+    private File mBankFile;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mContext = new RenamingDelegatingContext(getContext(), "test_");
+        mContext.deleteDatabase(DbHelper.DATABASE_NAME);
+        mDbHelper = new DbHelper(mContext);
+
+        mPackFile = new File(getContext().getCacheDir(), "test.pack");
+        mBankFile = new File(getContext().getCacheDir(), "test.bank");
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(DbHelper.DATABASE_NAME);
+        mPackFile.delete();
+        mBankFile.delete();
+        super.tearDown();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+        try {
+            final byte[] bytes = new byte[(int) randomAccessFile.length()];
+            randomAccessFile.readFully(bytes);
+            return bytes;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    public void testRoundTrip() throws IOException {
+        final String fixture = PuzzleImporterTest.createFixture();
+        final PuzzleImporter.Result imported = new PuzzleImporter(mDbHelper).importStream(
+                new ByteArrayInputStream(fixture.getBytes("US-ASCII")), null);
+        final int count = imported.imported;
+        assertTrue(count > 0);
+
+        // Every imported puzzle goes out as a puzzle record followed by its solution.
+        final PuzzlePackExporter.Result exported = new PuzzlePackExporter(mDbHelper).export(mPackFile);
+        assertEquals(0, exported.boards);
+        assertEquals(count, exported.puzzles);
+        assertEquals(count * 2, exported.records);
+
+        final byte[] pack = readFile(mPackFile);
+        final ByteBuffer header = ByteBuffer.wrap(pack).order(ByteOrder.LITTLE_ENDIAN);
+        assertTrue(PuzzlePack.isValidHeader(header));
+        assertEquals(count * 2, header.getInt(PuzzlePack.RECORD_COUNT_OFFSET));
+        assertEquals(PuzzlePack.HEADER_SIZE + count * 2 * PuzzlePack.RECORD_SIZE, pack.length);
+        for (int i = 0; i < count * 2; i++) {
+            final int offset = PuzzlePack.HEADER_SIZE + i * PuzzlePack.RECORD_SIZE;
+            assertEquals(i % 2 == 0 ? PuzzlePack.KIND_PUZZLE : PuzzlePack.KIND_SOLUTION,
+                    PuzzlePack.getKind(pack, offset));
+        }
+
+        assertEquals(count, PuzzleBank.build(mDbHelper, mBankFile));
+        final PuzzleBank bank = PuzzleBank.open(mBankFile);
+        assertNotNull(bank);
+        assertEquals(count, bank.getCount());
+
+        // Every puzzle is in the segment of its difficulty, and comes back with its solution.
+        final byte[] puzzle = new byte[81];
+        final byte[] solution = new byte[81];
+        final byte[] solved = new byte[81];
+        final Rater rater = new Rater();
+        final Solver solver = new Solver();
+        int loaded = 0;
+        for (int difficulty = Board.DIFFICULTY_NONE; difficulty <= Board.DIFFICULTY_HARD; difficulty++) {
+            final int first = bank.getFirst(difficulty);
+            for (int index = first; index < first + bank.getCount(difficulty); index++) {
+                assertTrue(bank.load(index, puzzle, solution));
+                assertEquals(difficulty, Generator.getDifficulty(rater.rate(puzzle)));
+
+                assertTrue(solver.setPuzzle(puzzle));
+                assertEquals(1, solver.countSolutions(2));
+                solver.getSolution(solved);
+                for (int i = 0; i < 81; i++) {
+                    assertEquals(solved[i], solution[i]);
+                }
+
+                StringBuilder line = new StringBuilder();
+                for (int i = 0; i < 81; i++) {
+                    line.append(puzzle[i] == 0 ? '.' : (char) ('0' + puzzle[i]));
+                }
+                assertTrue(line.toString(), fixture.contains(line));
+                loaded += 1;
+            }
+        }
+        assertEquals(count, loaded);
+        assertFalse(bank.load(count, puzzle, solution));
+    }
+
+    public void testMissingBank() {
+        mBankFile.delete();
+        assertNull(PuzzleBank.open(mBankFile));
+    }
+
+}
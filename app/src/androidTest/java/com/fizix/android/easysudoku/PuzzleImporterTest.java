@@ -0,0 +1,97 @@
+package com.fizix.android.easysudoku;
+
+import android.content.Context;
+import android.database.DatabaseUtils;
+import android.test.AndroidTestCase;
+import android.test.RenamingDelegatingContext;
+
+import com.fizix.android.easysudoku.data.Contract.Puzzles;
+import com.fizix.android.easysudoku.data.DbHelper;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+public class PuzzleImporterTest extends AndroidTestCase {
+
+    private static final int PUZZLE_COUNT = 5;
+
+    private Context mContext;
+    private DbHelper mDbHelper;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        // A database of its own, so the test does not touch the boards of the app.
+        mContext = new RenamingDelegatingContext(getContext(), "test_");
+        mContext.deleteDatabase(DbHelper.DATABASE_NAME);
+        mDbHelper = new DbHelper(mContext);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mDbHelper.close();
+        mContext.deleteDatabase(DbHelper.DATABASE_NAME);
+        super.tearDown();
+    }
+
+    // A collection of PUZZLE_COUNT puzzles with a comment, an empty line, a line that is not a
+    // puzzle, one that has many solutions and one that is the first puzzle with its digits
+    // relabeled.
+    static String createFixture() {
+        final Generator generator = new Generator(new Random());
+        final byte[] puzzle = new byte[81];
+        final byte[] solution = new byte[81];
+
+        StringBuilder fixture = new StringBuilder("# Test puzzles\n\n");
+        String first = null;
+        for (int i = 0; i < PUZZLE_COUNT; i++) {
+            generator.generate(puzzle, solution, Board.DIFFICULTY_EASY + i % 3, 100 + i);
+
+            StringBuilder line = new StringBuilder();
+            for (int j = 0; j < 81; j++) {
+                line.append(puzzle[j] == 0 ? '.' : (char) ('0' + puzzle[j]));
+            }
+            if (first == null) {
+                first = line.toString();
+            }
+            fixture.append(line).append(" rated by the generator\n");
+        }
+
+        fixture.append("123\n");
+        fixture.append(new String(new char[81]).replace('\0', '0')).append('\n');
+        fixture.append(first.replace('1', 'x').replace('2', '1').replace('x', '2')).append('\n');
+        return fixture.toString();
+    }
+
+    private PuzzleImporter.Result importFixture(String fixture) throws IOException {
+        return new PuzzleImporter(mDbHelper).importStream(
+                new ByteArrayInputStream(fixture.getBytes("US-ASCII")), null);
+    }
+
+    private long getPuzzleCount() {
+        return DatabaseUtils.queryNumEntries(mDbHelper.getReadableDatabase(), Puzzles.TABLE_NAME);
+    }
+
+    public void testImport() throws IOException {
+        final PuzzleImporter.Result result = importFixture(createFixture());
+        assertEquals(PUZZLE_COUNT, result.imported);
+        assertEquals(1, result.malformed);
+        assertEquals(1, result.invalid);
+        assertEquals(1, result.duplicates);
+        assertEquals(PUZZLE_COUNT, getPuzzleCount());
+    }
+
+    public void testImportTwiceSkipsDuplicates() throws IOException {
+        final String fixture = createFixture();
+        importFixture(fixture);
+
+        // Every puzzle is in the table already, so the unique fingerprint ignores them all.
+        final PuzzleImporter.Result result = importFixture(fixture);
+        assertEquals(0, result.imported);
+        assertEquals(PUZZLE_COUNT + 1, result.duplicates);
+        assertEquals(PUZZLE_COUNT, getPuzzleCount());
+    }
+
+}
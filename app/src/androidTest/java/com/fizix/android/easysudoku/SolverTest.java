@@ -0,0 +1,159 @@
+package com.fizix.android.easysudoku;
+
+import android.test.AndroidTestCase;
+
+public class SolverTest extends AndroidTestCase {
+
+    // A puzzle with exactly one solution, and that solution.
+    private static final String PUZZLE =
+            "530070000600195000098000060800060003400803001700020006060000280000419005000080079";
+    private static final String SOLUTION =
+            "534678912672195348198342567859761423426853791713924856961537284287419635345286179";
+
+    private Solver mSolver;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        mSolver = new Solver();
+    }
+
+    private static byte[] parse(String numbers) {
+        final byte[] result = new byte[81];
+        for (int i = 0; i < 81; i++) {
+            result[i] = (byte) (numbers.charAt(i) - '0');
+        }
+        return result;
+    }
+
+    public void testUniquePuzzle() {
+        final byte[] puzzle = parse(PUZZLE);
+        assertTrue(mSolver.setPuzzle(puzzle));
+        assertEquals(1, mSolver.countSolutions(2));
+        assertFalse(mSolver.isAborted());
+
+        final byte[] solution = new byte[81];
+        mSolver.getSolution(solution);
+        for (int i = 0; i < 81; i++) {
+            assertTrue(puzzle[i] == 0 || puzzle[i] == solution[i]);
+        }
+        assertEquals(SOLUTION, format(solution));
+    }
+
+    public void testSolveFindsSolution() {
+        assertTrue(mSolver.setPuzzle(parse(PUZZLE)));
+        assertTrue(mSolver.solve());
+
+        final byte[] solution = new byte[81];
+        mSolver.getSolution(solution);
+        assertEquals(SOLUTION, format(solution));
+    }
+
+    public void testEmptyGridHasManySolutions() {
+        assertTrue(mSolver.setPuzzle(new byte[81]));
+        assertEquals(2, mSolver.countSolutions(2));
+        assertFalse(mSolver.isAborted());
+    }
+
+    public void testConflictingGivens() {
+        // Two fives in the first column.
+        final byte[] puzzle = parse(PUZZLE);
+        puzzle[9 * 8] = 5;
+        assertFalse(mSolver.setPuzzle(puzzle));
+        assertEquals(0, mSolver.countSolutions(2));
+    }
+
+    public void testUnsolvablePuzzle() {
+        // The givens do not conflict, but the first cell has no number left.
+        final byte[] puzzle = new byte[81];
+        for (int i = 1; i < 9; i++) {
+            puzzle[i] = (byte) i;
+        }
+        puzzle[9 * 4] = 9;
+        assertTrue(mSolver.setPuzzle(puzzle));
+        assertEquals(0, mSolver.countSolutions(2));
+        assertFalse(mSolver.isAborted());
+    }
+
+    public void testNodeLimit() {
+        // Counting every solution of an empty grid never finishes by itself.
+        mSolver.setNodeLimit(100);
+        assertTrue(mSolver.setPuzzle(new byte[81]));
+        mSolver.countSolutions(Integer.MAX_VALUE);
+        assertTrue(mSolver.isAborted());
+        assertTrue(mSolver.getNodeCount() <= 101);
+
+        // A puzzle that needs fewer nodes is not affected.
+        mSolver.setNodeLimit(100000);
+        assertTrue(mSolver.setPuzzle(parse(PUZZLE)));
+        assertEquals(1, mSolver.countSolutions(2));
+        assertFalse(mSolver.isAborted());
+    }
+
+    public void testDeadline() {
+        mSolver.setDeadline(System.nanoTime() - 1);
+        assertTrue(mSolver.setPuzzle(new byte[81]));
+        mSolver.countSolutions(Integer.MAX_VALUE);
+        assertTrue(mSolver.isAborted());
+        assertTrue(mSolver.getNodeCount() > 1024);
+
+        // Without the deadline the same solver finishes again.
+        mSolver.clearDeadline();
+        assertTrue(mSolver.setPuzzle(parse(PUZZLE)));
+        assertEquals(1, mSolver.countSolutions(2));
+        assertFalse(mSolver.isAborted());
+    }
+
+    public void testBoardSolutions() {
+        final Board board = new Board(Board.DIFFICULTY_EASY);
+
+        final Grid grid = new Grid();
+        grid.setNumbers(parse(PUZZLE), true);
+        board.restore(grid);
+        assertEquals(1, board.countSolutions(2));
+        assertTrue(board.isValid());
+
+        // Taking out a given leaves the puzzle with more than one solution.
+        grid.setNumbers(new byte[81], true);
+        board.restore(grid);
+        assertEquals(2, board.countSolutions(2));
+        assertFalse(board.isValid());
+    }
+
+    public void testBoardCandidates() {
+        final Board board = new Board(Board.DIFFICULTY_EASY);
+        final byte[] puzzle = parse(PUZZLE);
+        final Grid grid = new Grid();
+        grid.setNumbers(puzzle, true);
+        board.restore(grid);
+
+        // The third cell of the first row sees 5, 3 and 7 in its row, 8 in its column and 6, 9
+        // and 8 in its box.
+        assertEquals((1 << 1) | (1 << 2) | (1 << 4), board.candidatesAt(3, 1));
+
+        for (int i = 0; i < 81; i++) {
+            if (puzzle[i] != 0) {
+                continue;
+            }
+
+            int used = 0;
+            for (int peer : Rater.PEERS[i]) {
+                used |= 1 << puzzle[peer];
+            }
+            final int x = i % 9 + 1;
+            final int y = i / 9 + 1;
+            assertEquals("Cell " + x + ", " + y, ~used & Solver.ALL_DIGITS,
+                    board.candidatesAt(x, y));
+        }
+    }
+
+    private static String format(byte[] numbers) {
+        final StringBuilder builder = new StringBuilder(81);
+        for (int i = 0; i < 81; i++) {
+            builder.append(numbers[i]);
+        }
+        return builder.toString();
+    }
+
+}
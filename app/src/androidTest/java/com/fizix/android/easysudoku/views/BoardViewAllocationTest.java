@@ -0,0 +1,63 @@
+package com.fizix.android.easysudoku.views;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.os.Debug;
+import android.test.AndroidTestCase;
+import android.view.View;
+
+import com.fizix.android.easysudoku.Board;
+
+public class BoardViewAllocationTest extends AndroidTestCase {
+
+    private static final int SIZE = 540;
+    private static final int FRAMES = 100;
+
+    private Bitmap mBitmap;
+    private Canvas mCanvas;
+    private BoardView mBoardView;
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+
+        // A full board, so every cell draws a number.
+        Board board = new Board(Board.DIFFICULTY_EASY);
+        board.fillBoard();
+        board.setActionNumber(5);
+
+        mBoardView = new BoardView(getContext());
+        mBoardView.setBoard(board);
+
+        final int spec = View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY);
+        mBoardView.measure(spec, spec);
+        mBoardView.layout(0, 0, SIZE, SIZE);
+
+        mBitmap = Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888);
+        mCanvas = new Canvas(mBitmap);
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mBitmap.recycle();
+        super.tearDown();
+    }
+
+    public void testDrawDoesNotAllocate() {
+        // The first frame may set up caches.
+        mBoardView.draw(mCanvas);
+
+        Debug.resetThreadAllocCount();
+        Debug.startAllocCounting();
+        try {
+            for (int i = 0; i < FRAMES; i++) {
+                mBoardView.draw(mCanvas);
+            }
+        } finally {
+            Debug.stopAllocCounting();
+        }
+
+        assertEquals("Allocations while drawing " + FRAMES + " frames", 0, Debug.getThreadAllocCount());
+    }
+
+}
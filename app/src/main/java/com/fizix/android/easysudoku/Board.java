@@ -3,15 +3,13 @@ package com.fizix.android.easysudoku;
 import android.content.ContentValues;
 import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
 import android.util.Log;
 
 import com.fizix.android.easysudoku.data.Contract.Boards;
-import com.fizix.android.easysudoku.data.Contract.Blocks;
 import com.fizix.android.easysudoku.data.DbHelper;
 
-import java.util.HashSet;
 import java.util.Random;
-import java.util.Set;
 
 
 public class Board {
@@ -28,7 +26,7 @@ public class Board {
     private int mDifficulty = DIFFICULTY_NONE;
 
     // The numbers on the board.
-    private Block mBlocks[];
+    private final Grid mGrid = new Grid();
 
     // Selected block position.
     private int mSelectedBlockX;
@@ -37,27 +35,121 @@ public class Board {
     // The currently selected number.
     private int mActionNumber;
 
+    // When set, selecting an empty block toggles a pencil mark instead of filling in a number.
+    private boolean mNotesMode;
+
+    // Solver used to check and solve this board, created on first use.
+    private Solver mSolver;
+
+    // Generator used to create new boards, created on first use.
+    private Generator mGenerator;
+
+    // Rater used to find hints, created on first use.
+    private Rater mRater;
+
+    // The solution of the puzzle, if we know it.  Worked out from the givens when it is needed.
+    private final byte[] mSolution = new byte[81];
+    private boolean mHasSolution;
+
+    // The moves that can be undone and redone.  Set while undoing or redoing, so those changes
+    // are not recorded again.
+    private final MoveHistory mHistory = new MoveHistory();
+    private boolean mReplaying;
+
+    // Every change is also appended here, so it survives the process being killed before the
+    // board is saved.  Null if there is no journal.
+    private MoveJournal mJournal;
+
+    // The numbers as they were when the last hint was asked for.
+    private final byte[] mHintNumbers = new byte[81];
+
+    // Queue of ready made puzzles to take new boards from.
+    private PuzzleQueue mPuzzleQueue;
+
+    // Bank of curated puzzles that new boards are picked from instead, if set.
+    private PuzzleBank mPuzzleBank;
+    private Random mBankRandom;
+
+    // Where a new board is created, so creating one does not allocate.
+    private final byte[] mNewPuzzle = new byte[81];
+    private final byte[] mNewSolution = new byte[81];
+
+    // Cells changed since the board was last saved or loaded, and whether the selection changed.
+    private final CellSet mDirtyCells = new CellSet();
+    private boolean mStateDirty = true;
+
+    // The cells in the packed format as they were last saved or loaded, so a save only has to
+    // patch the dirty cells.
+    private final byte[] mPackedCells = new byte[Grid.PACKED_SIZE];
+    private boolean mPackedCellsValid;
+
+    // Set once the saved state was applied, or there turned out to be none.  Until then the board
+    // only holds a placeholder, and saving it would overwrite the row that is still being loaded.
+    private boolean mLoaded;
+
+    // How long it took to generate the last new board.
+    private long mLastGenerationNanos;
+
+    // The seed the puzzle was generated from, if it was.
+    private long mSeed;
+    private boolean mHasSeed;
+
+    // How long nextHint() may look for a logical deduction, so a hint comes back within a frame.
+    public static final long HINT_TIME_BUDGET_NANOS = 12L * 1000L * 1000L;
+
+    // Solver nodes we allow when working out the solution for a hint.
+    private static final long HINT_NODE_LIMIT = 200000L;
+
+    // A number that can be filled in, and the hardest technique needed to find it.
+    // Rater.TECHNIQUE_TRIAL means it was revealed from the solution.
+    public static class Hint {
+        public final int x;
+        public final int y;
+        public final int number;
+        public final int technique;
+
+        Hint(int index, int number, int technique) {
+            this.x = index % 9 + 1;
+            this.y = index / 9 + 1;
+            this.number = number;
+            this.technique = technique;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Hint(%d, %d) = %d, technique %d", x, y, number, technique);
+        }
+    }
+
     public interface Listener {
         void onSelectedBlockChanged(int x, int y, int number);
 
         void onActionNumberChanged(int actionNumber);
 
-        void onNumbersChanged(int x, int y, int number);
+        // |cells| holds the index of every cell that changed.  It is only valid during the call.
+        void onNumbersChanged(CellSet cells);
     }
 
-    Set<Listener> mListeners = new HashSet<>();
+    // The listeners are replaced, never modified, so dispatching can walk the array without
+    // allocating and listeners can add or remove themselves while being notified.
+    private Listener[] mListeners = new Listener[0];
+
+    // Nesting depth of beginUpdate() calls.
+    private int mUpdateDepth;
+
+    // What changed in the current batch, reported when the outermost batch ends.
+    private final CellSet mChangedCells = new CellSet();
+    private final CellSet mNotifyCells = new CellSet();
+    private boolean mSelectionChanged;
+    private boolean mActionNumberChanged;
 
     public Board(int difficulty) {
         // Set the difficulty of this board.
         mDifficulty = difficulty;
 
-        // Create the blocks.
-        mBlocks = new Block[9 * 9];
-        for (int i = 0; i < mBlocks.length; ++i) {
-            mBlocks[i] = new Block(i % 9, i / 9, 0);
-        }
-
-        setNumberAt(7, 4, 8);
+        // A placeholder until the saved board is loaded.  It goes straight into the grid, so it is
+        // not a move the first undo would take back.
+        mGrid.set((4 - 1) * 9 + (7 - 1), 8);
 
         mSelectedBlockX = 1;
         mSelectedBlockY = 1;
@@ -65,20 +157,169 @@ public class Board {
         mActionNumber = 1;
     }
 
+    public int getDifficulty() {
+        return mDifficulty;
+    }
+
     public int getNumberAt(int x, int y) {
         final int index = (y - 1) * 9 + (x - 1);
         assert (index >= 0 && index < 81);
-        return mBlocks[index].getNumber();
+        return mGrid.get(index);
     }
 
+    // Fill in |number| at |x|, |y|, 0 to erase it.  Givens are part of the puzzle and can not be
+    // changed, so undo and redo never have to bring one back.
     public void setNumberAt(int x, int y, int number) {
         final int index = (y - 1) * 9 + (x - 1);
         assert (index >= 0 && index < 81);
-        mBlocks[index].setNumber(number);
+        if (mGrid.isGiven(index) || mGrid.get(index) == number) {
+            return;
+        }
+
+        beginUpdate();
+        final int oldNumber = mGrid.get(index);
+        final int oldMarks = mGrid.getMarks(index);
+        mGrid.set(index, number);
+        mDirtyCells.add(index);
+        mChangedCells.add(index);
+
+        // A placed number needs no marks, and rules out its digit for every peer.
+        if (number != 0) {
+            mGrid.setMarks(index, 0);
+        }
+        recordMove(index, oldNumber, number, oldMarks ^ mGrid.getMarks(index));
+
+        if (number != 0) {
+            for (int peer : Rater.PEERS[index]) {
+                if (mGrid.removeMark(peer, number)) {
+                    mDirtyCells.add(peer);
+                    mChangedCells.add(peer);
+                    recordMove(peer, mGrid.get(peer), mGrid.get(peer), 1 << number);
+                }
+            }
+        }
+
+        endUpdate();
+    }
+
+    // The pencil marks of |x|, |y|, bit n set if number n is marked.
+    public int getMarksAt(int x, int y) {
+        final int index = (y - 1) * 9 + (x - 1);
+        assert (index >= 0 && index < 81);
+        return mGrid.getMarks(index);
+    }
+
+    public void setMarksAt(int x, int y, int marks) {
+        final int index = (y - 1) * 9 + (x - 1);
+        assert (index >= 0 && index < 81);
+        if (mGrid.isGiven(index) || mGrid.getMarks(index) == marks) {
+            return;
+        }
+
+        beginUpdate();
+        final int oldMarks = mGrid.getMarks(index);
+        mGrid.setMarks(index, marks);
+        mDirtyCells.add(index);
+        mChangedCells.add(index);
+        recordMove(index, mGrid.get(index), mGrid.get(index), oldMarks ^ mGrid.getMarks(index));
+        endUpdate();
+    }
+
+    public void toggleMarkAt(int x, int y, int number) {
+        assert (number >= 1 && number <= 9);
+        setMarksAt(x, y, getMarksAt(x, y) ^ (1 << number));
+    }
+
+    private void recordMove(int index, int oldNumber, int newNumber, int flippedMarks) {
+        final int move = MoveHistory.pack(index, oldNumber, newNumber, flippedMarks);
+        if (!mReplaying) {
+            mHistory.record(move);
+        }
+        // The cell is in its final state for this move.
+        if (mJournal != null) {
+            mJournal.appendCell(index, mGrid.get(index), mGrid.getMarks(index));
+        }
+    }
+
+    // The whole board changed, so the journal has to start over from it.
+    private void journalSnapshot() {
+        if (mJournal != null) {
+            mJournal.appendSnapshot(mGrid, mHasSeed, mSeed);
+        }
+    }
+
+    public MoveJournal getJournal() {
+        return mJournal;
+    }
+
+    public void setJournal(MoveJournal journal) {
+        mJournal = journal;
+    }
+
+    public boolean canUndo() {
+        return mHistory.canUndo();
+    }
 
-        for (Listener listener : mListeners) {
-            listener.onNumbersChanged(x, y, number);
+    public boolean canRedo() {
+        return mHistory.canRedo();
+    }
+
+    // Undo the last user action.  Every cell it touched is reported to the listeners in one
+    // notification.  Returns false if there was nothing to undo.
+    public boolean undo() {
+        if (!mHistory.canUndo()) {
+            return false;
+        }
+
+        beginUpdate();
+        mReplaying = true;
+        mHistory.startUndo();
+        for (int move = mHistory.nextUndo(); move != -1; move = mHistory.nextUndo()) {
+            applyMove(MoveHistory.getIndex(move), MoveHistory.getOldNumber(move), MoveHistory.getFlippedMarks(move));
+        }
+        mReplaying = false;
+        endUpdate();
+
+        return true;
+    }
+
+    public boolean redo() {
+        if (!mHistory.canRedo()) {
+            return false;
+        }
+
+        beginUpdate();
+        mReplaying = true;
+        mHistory.startRedo();
+        for (int move = mHistory.nextRedo(); move != -1; move = mHistory.nextRedo()) {
+            applyMove(MoveHistory.getIndex(move), MoveHistory.getNewNumber(move), MoveHistory.getFlippedMarks(move));
+        }
+        mReplaying = false;
+        endUpdate();
+
+        return true;
+    }
+
+    // Moves are only recorded for cells that are not given, so setting the number as a user entry
+    // leaves the givens as they were.
+    private void applyMove(int index, int number, int flippedMarks) {
+        assert (!mGrid.isGiven(index));
+        final int oldNumber = mGrid.get(index);
+        if (oldNumber != number) {
+            mGrid.set(index, number);
         }
+        mGrid.setMarks(index, mGrid.getMarks(index) ^ flippedMarks);
+        recordMove(index, oldNumber, number, flippedMarks);
+        mDirtyCells.add(index);
+        mChangedCells.add(index);
+    }
+
+    public boolean isNotesMode() {
+        return mNotesMode;
+    }
+
+    public void setNotesMode(boolean notesMode) {
+        mNotesMode = notesMode;
     }
 
     public int getSelectedBlockX() {
@@ -96,11 +337,15 @@ public class Board {
     public void setSelectedBlock(int x, int y) {
         Log.d(LOG_TAG, String.format("setSelectedBlock(%d, %d)", x, y));
         assert ((x >= 1 && x <= 9) && (y >= 1 && y <= 9));
+        beginUpdate();
+
         mSelectedBlockX = x;
         mSelectedBlockY = y;
+        mStateDirty = true;
+        mSelectionChanged = true;
 
         // When the selected block changed and it is filled in, then make it the selected number,
-        // otherwise fill in the number.
+        // otherwise fill in the number.  The eraser only clears numbers the user filled in.
         int selectedNumber = getNumberAt(mSelectedBlockX, mSelectedBlockY);
         if (selectedNumber != 0) {
             if (mActionNumber == 0) {
@@ -108,29 +353,105 @@ public class Board {
             } else {
                 setActionNumber(selectedNumber);
             }
+        } else if (mNotesMode) {
+            // In notes mode the eraser clears the marks.
+            if (mActionNumber == 0) {
+                setMarksAt(mSelectedBlockX, mSelectedBlockY, 0);
+            } else {
+                toggleMarkAt(mSelectedBlockX, mSelectedBlockY, mActionNumber);
+            }
         } else {
             setNumberAt(mSelectedBlockX, mSelectedBlockY, mActionNumber);
         }
 
-        for (Listener listener : mListeners) {
-            listener.onSelectedBlockChanged(mSelectedBlockX, mSelectedBlockY, getNumberAt(mSelectedBlockX, mSelectedBlockY));
-        }
+        endUpdate();
     }
 
     public void addListener(Listener listener) {
-        mListeners.add(listener);
+        if (indexOfListener(listener) != -1) {
+            return;
+        }
+
+        Listener[] listeners = new Listener[mListeners.length + 1];
+        System.arraycopy(mListeners, 0, listeners, 0, mListeners.length);
+        listeners[mListeners.length] = listener;
+        mListeners = listeners;
     }
 
     public void removeListener(Listener listener) {
-        mListeners.remove(listener);
+        final int index = indexOfListener(listener);
+        if (index == -1) {
+            return;
+        }
+
+        Listener[] listeners = new Listener[mListeners.length - 1];
+        System.arraycopy(mListeners, 0, listeners, 0, index);
+        System.arraycopy(mListeners, index + 1, listeners, index, listeners.length - index);
+        mListeners = listeners;
     }
 
-    public void setActionNumber(int actionNumber) {
-        mActionNumber = actionNumber;
+    private int indexOfListener(Listener listener) {
+        for (int i = 0; i < mListeners.length; i++) {
+            if (mListeners[i] == listener) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    // Start a batch of changes.  Listeners are not notified until the matching endUpdate(), and
+    // then only once for everything that changed in between.  Batches can be nested.
+    public void beginUpdate() {
+        mUpdateDepth += 1;
+    }
+
+    public void endUpdate() {
+        assert (mUpdateDepth > 0);
+        mUpdateDepth -= 1;
+        if (mUpdateDepth > 0) {
+            return;
+        }
+
+        // Everything changed in one batch is undone in one go.
+        mHistory.endGroup();
+
+        // Take the changes before notifying, so listeners can start batches of their own.
+        final boolean actionNumberChanged = mActionNumberChanged;
+        final boolean selectionChanged = mSelectionChanged;
+        mNotifyCells.copyFrom(mChangedCells);
+        mChangedCells.clear();
+        mActionNumberChanged = false;
+        mSelectionChanged = false;
+
+        final Listener[] listeners = mListeners;
+        if (!mNotifyCells.isEmpty()) {
+            for (int i = 0; i < listeners.length; i++) {
+                listeners[i].onNumbersChanged(mNotifyCells);
+            }
+        }
+        if (actionNumberChanged) {
+            for (int i = 0; i < listeners.length; i++) {
+                listeners[i].onActionNumberChanged(mActionNumber);
+            }
+        }
+        if (selectionChanged) {
+            final int number = getNumberAt(mSelectedBlockX, mSelectedBlockY);
+            for (int i = 0; i < listeners.length; i++) {
+                listeners[i].onSelectedBlockChanged(mSelectedBlockX, mSelectedBlockY, number);
+            }
+        }
+    }
 
-        for (Listener listener : mListeners) {
-            listener.onActionNumberChanged(actionNumber);
+    public void setActionNumber(int actionNumber) {
+        if (mActionNumber == actionNumber) {
+            return;
         }
+
+        beginUpdate();
+        mActionNumber = actionNumber;
+        mStateDirty = true;
+        mActionNumberChanged = true;
+        endUpdate();
     }
 
     public int getActionNumber() {
@@ -139,222 +460,595 @@ public class Board {
 
     public void fillBoard() {
         // Fill out the board with sequential numbers.
-        int start = 1;
-        for (int y = 0; y < 9; y++) {
-            int current = start + (y % 3 * 3);
-            for (int x = 0; x < 9; x++) {
-                final int index = y * 9 + x;
-                mBlocks[index].setNumber(current);
-                current = current + 1;
-                if (current > 9) {
-                    current = 1;
-                }
+        byte[] numbers = new byte[81];
+        Generator.fillGrid(numbers);
+        System.arraycopy(numbers, 0, mSolution, 0, 81);
+        mHasSolution = true;
+        mHasSeed = false;
+
+        beginUpdate();
+        mGrid.setNumbers(numbers, true);
+        mHistory.clear();
+        journalSnapshot();
+        mDirtyCells.addAll();
+        mChangedCells.addAll();
+        endUpdate();
+    }
+
+    // Use |puzzleQueue| to get new boards from instead of generating them.
+    public void setPuzzleQueue(PuzzleQueue puzzleQueue) {
+        mPuzzleQueue = puzzleQueue;
+    }
+
+    // Pick new boards from |puzzleBank| when it has puzzles of our difficulty.
+    public void setPuzzleBank(PuzzleBank puzzleBank) {
+        mPuzzleBank = puzzleBank;
+    }
+
+    // Start over with a ready made puzzle from the bank or the queue.  Returns false if there is
+    // none: generating one can take too long for the UI thread, so BoardPersister.createNew() does
+    // that in the background instead.
+    public boolean createNew() {
+        final byte[] puzzle = mNewPuzzle;
+        final byte[] solution = mNewSolution;
+
+        if (mPuzzleBank != null && mPuzzleBank.getCount(mDifficulty) > 0) {
+            if (mBankRandom == null) {
+                mBankRandom = new Random();
             }
-            if (y == 2 || y == 5) {
-                start += 1;
+
+            final int index = mPuzzleBank.getFirst(mDifficulty) + mBankRandom.nextInt(mPuzzleBank.getCount(mDifficulty));
+            if (mPuzzleBank.load(index, puzzle, solution)) {
+                Log.d(LOG_TAG, "Took board " + index + " from the puzzle bank.");
+                setGeneratedPuzzle(puzzle, solution);
+                return true;
             }
         }
+
+        // Take a ready made puzzle if there is one.
+        if (mPuzzleQueue != null && mPuzzleQueue.take(mDifficulty, puzzle, solution)) {
+            Log.d(LOG_TAG, String.format("Took board from the queue (%d hits, %d misses).",
+                    mPuzzleQueue.getHitCount(), mPuzzleQueue.getMissCount()));
+            setGeneratedPuzzle(puzzle, solution);
+            return true;
+        }
+
+        return false;
     }
 
-    private void swapRows(int row1, int row2) {
-        assert(row1 >= 0 && row1 < 9);
-        assert(row2 >= 0 && row2 < 9);
+    // Generate the puzzle of |seed| for our difficulty.  The same seed and difficulty always give
+    // the same puzzle, so the pair can be stored or shared instead of the puzzle.  Seeded puzzles
+    // are only bounded by the node budget and can take tens of milliseconds, so the UI uses
+    // BoardPersister.createNew() to generate them in the background instead.
+    public void createNew(long seed) {
+        final int rating = getGenerator().generate(mNewPuzzle, mNewSolution, mDifficulty, seed);
+
+        mLastGenerationNanos = mGenerator.getLastElapsedNanos();
+        Log.d(LOG_TAG, String.format("Generated board %016x rated %d in %.2f ms (%d nodes).",
+                seed, rating, mLastGenerationNanos / 1000000.0, mGenerator.getLastNodeCount()));
 
-        Log.d(LOG_TAG, "Swapping rows " + row1 + " and " + row2 + ".");
+        setSeededPuzzle(seed, mNewPuzzle, mNewSolution);
+    }
 
-        for (int i = 0; i < 9; i++) {
-            final int index1 = row1 * 9 + i;
-            final int index2 = row2 * 9 + i;
+    // Start over with |puzzle| and its |solution|, generated for our difficulty.
+    void setGeneratedPuzzle(byte[] puzzle, byte[] solution) {
+        mHasSeed = false;
+        setPuzzle(puzzle, solution);
+    }
 
-            int temp = mBlocks[index1].getNumber();
-            mBlocks[index1].setNumber(mBlocks[index2].getNumber());
-            mBlocks[index2].setNumber(temp);
+    // Start over with |puzzle| and its |solution|, generated from |seed| for our difficulty.
+    void setSeededPuzzle(long seed, byte[] puzzle, byte[] solution) {
+        mSeed = seed;
+        mHasSeed = true;
+        setPuzzle(puzzle, solution);
+    }
+
+    // Generate the daily puzzle of a date for our difficulty, |month| from 1 to 12.  Everyone gets
+    // the same puzzle on the same day without storing or downloading it.  As slow as createNew().
+    public void createDaily(int year, int month, int day) {
+        createNew(Generator.getDailySeed(year, month, day));
+    }
+
+    // Whether the puzzle was generated from a seed, which getSeed() returns.
+    public boolean hasSeed() {
+        return mHasSeed;
+    }
+
+    public long getSeed() {
+        return mSeed;
+    }
+
+    private Generator getGenerator() {
+        if (mGenerator == null) {
+            mGenerator = new Generator(new Random());
         }
+        return mGenerator;
     }
 
-    private void swapColumns(int col1, int col2) {
-        assert(col1 >= 0 && col1 < 9);
-        assert(col2 >= 0 && col2 < 9);
+    private void setPuzzle(byte[] puzzle, byte[] solution) {
+        System.arraycopy(solution, 0, mSolution, 0, 81);
+        mHasSolution = true;
+
+        beginUpdate();
+        mGrid.setNumbers(puzzle, true);
+        mHistory.clear();
+        journalSnapshot();
+        mDirtyCells.addAll();
+        mChangedCells.addAll();
+        endUpdate();
+    }
 
-        Log.d(LOG_TAG, "Swapping columns " + col1 + " and " + col2 + ".");
+    // How long the last call to createNew(long) took to generate the board.
+    public long getLastGenerationNanos() {
+        return mLastGenerationNanos;
+    }
 
-        for (int i = 0; i < 9; i++) {
-            final int index1 = i * 9 + col1;
-            final int index2 = i * 9 + col2;
+    // Fill in every empty block with the solution of the board.  Returns false if the board can
+    // not be solved.
+    public boolean solve() {
+        Solver solver = loadSolver();
+        if (!solver.solve()) {
+            return false;
+        }
 
-            final int temp = mBlocks[index1].getNumber();
-            mBlocks[index1].setNumber(mBlocks[index2].getNumber());
-            mBlocks[index2].setNumber(temp);
+        byte[] solution = new byte[81];
+        solver.getSolution(solution);
+
+        beginUpdate();
+        for (int i = 0; i < 81; i++) {
+            if (mGrid.get(i) == 0) {
+                final int oldMarks = mGrid.getMarks(i);
+                mGrid.set(i, solution[i]);
+                mGrid.setMarks(i, 0);
+                mDirtyCells.add(i);
+                mChangedCells.add(i);
+                recordMove(i, 0, solution[i], oldMarks);
+            }
         }
+        endUpdate();
+
+        return true;
+    }
+
+    // Count the solutions of the board, up to |limit|.
+    public int countSolutions(int limit) {
+        return loadSolver().countSolutions(limit);
     }
 
-    public void createNew() {
-        fillBoard();
+    // A board is valid if the numbers on it have exactly one solution.
+    public boolean isValid() {
+        return countSolutions(2) == 1;
+    }
+
+    // Copy the current state of the board into |grid|.
+    public void snapshot(Grid grid) {
+        grid.copyFrom(mGrid);
+    }
+
+    public Grid snapshot() {
+        return new Grid(mGrid);
+    }
+
+    // Replace the state of the board with |grid|.  The solution of the old givens no longer
+    // applies, so the next hint works out the new one.
+    public void restore(Grid grid) {
+        mHasSeed = false;
+        mHasSolution = false;
+
+        beginUpdate();
+        mGrid.copyFrom(grid);
+        mHistory.clear();
+        journalSnapshot();
+        mDirtyCells.addAll();
+        mChangedCells.addAll();
+        endUpdate();
+    }
 
-        Random r = new Random();
+    // Returns true if the number at |x|, |y| is also used in its row, column or box.
+    public boolean isConflict(int x, int y) {
+        final int index = (y - 1) * 9 + (x - 1);
+        assert (index >= 0 && index < 81);
+        return mGrid.isConflict(index);
+    }
 
-        // Swap a bunch of random rows and columns.
-        for (int i = 0; i < 50; i++) {
-            for (int j = 0; j < 3; j++) {
-                int row1 = j * 3 + r.nextInt(3);
-                int row2 = j * 3 + r.nextInt(3);
-                swapRows(row1, row2);
+    // The numbers that can still go in |x|, |y| without a conflict, bit n set for number n.
+    public int candidatesAt(int x, int y) {
+        final int index = (y - 1) * 9 + (x - 1);
+        assert (index >= 0 && index < 81);
+        return mGrid.getCandidates(index);
+    }
 
-                int col1 = j * 3 + r.nextInt(3);
-                int col2 = j * 3 + r.nextInt(3);
-                swapColumns(col1, col2);
+    // Add the cells that share a row, column or box with any cell in |cells| to |out|.  Those are
+    // the cells a change to |cells| can start or end a conflict in.
+    public static void addPeers(CellSet cells, CellSet out) {
+        for (int index = cells.nextSetBit(0); index != -1; index = cells.nextSetBit(index + 1)) {
+            for (int peer : Rater.PEERS[index]) {
+                out.add(peer);
             }
         }
+    }
+
+    public boolean isGivenAt(int x, int y) {
+        final int index = (y - 1) * 9 + (x - 1);
+        assert (index >= 0 && index < 81);
+        return mGrid.isGiven(index);
+    }
+
+    // Find the next number that can be filled in.  A copy of the board is solved step by step with
+    // the easiest technique that makes progress until a number is placed.  If that takes longer
+    // than HINT_TIME_BUDGET_NANOS, or needs trial and error, a cell is revealed from the solution
+    // instead.  Returns null if the board is full or has no solution, or the solution could not be
+    // worked out within the budget.
+    public Hint nextHint() {
+        return nextHint(HINT_TIME_BUDGET_NANOS);
+    }
+
+    public Hint nextHint(long timeBudgetNanos) {
+        final long deadline = System.nanoTime() + timeBudgetNanos;
+
+        // Every hint is checked against the solution, so it has to be worked out first.  The
+        // loader usually did that already, otherwise it counts against the budget too.
+        if (!loadSolution(deadline)) {
+            return null;
+        }
+
+        if (mRater == null) {
+            mRater = new Rater();
+        }
+
+        mGrid.copyNumbers(mHintNumbers);
 
-        // The amount of blocks we want to remove according to the difficulty.
-        int blocksToRemove = 81;
-        switch (mDifficulty) {
-            case DIFFICULTY_EASY:
-                blocksToRemove = 50;
-                break;
+        if (mRater.setPuzzle(mHintNumbers) && !mRater.isSolved()) {
+            int hardest = Rater.TECHNIQUE_NONE;
+            while (System.nanoTime() < deadline) {
+                final int technique = mRater.step();
+                if (technique == Rater.TECHNIQUE_TRIAL) {
+                    break;
+                }
+                if (technique > hardest) {
+                    hardest = technique;
+                }
 
-            case DIFFICULTY_MEDIUM:
-                blocksToRemove = 60;
-                break;
+                final int index = mRater.getLastIndex();
+                if (index != -1) {
+                    final int number = mRater.getLastNumber();
 
-            case DIFFICULTY_HARD:
-                blocksToRemove = 70;
-                break;
+                    // A deduction from a wrong entry is no help, reveal the real number instead.
+                    if (mSolution[index] == number) {
+                        return new Hint(index, number, hardest);
+                    }
+                    break;
+                }
+            }
         }
 
-        Log.d(LOG_TAG, "Blocks to remove for difficulty = " + blocksToRemove);
+        return revealHint();
+    }
 
-        int blocksRemoved = 0;
-        while (blocksRemoved < blocksToRemove) {
-            int index = r.nextInt(9 * 9);
-            if (mBlocks[index].getNumber() == 0) {
+    // Reveal the empty cell with the fewest candidates from the solution, which must be loaded.
+    private Hint revealHint() {
+        int best = -1;
+        int bestCount = 10;
+        for (int i = 0; i < 81; i++) {
+            if (mGrid.get(i) != 0) {
                 continue;
             }
+            final int count = Integer.bitCount(mGrid.getCandidates(i));
+            if (count < bestCount) {
+                best = i;
+                bestCount = count;
+            }
+        }
+
+        return best == -1 ? null : new Hint(best, mSolution[best], Rater.TECHNIQUE_TRIAL);
+    }
 
-            blocksRemoved += 1;
-            mBlocks[index].setNumber(0);
+    // Make sure mSolution holds the solution of the givens.  Returns false if there is none, or it
+    // could not be worked out before System.nanoTime() reaches |deadline|.
+    private boolean loadSolution(long deadline) {
+        if (mHasSolution) {
+            return true;
         }
 
-        for (Listener listener : mListeners) {
-            listener.onNumbersChanged(0, 0, 0);
+        if (mSolver == null) {
+            mSolver = new Solver();
         }
+
+        final long nodeLimit = mSolver.getNodeLimit();
+        mSolver.setDeadline(deadline);
+        mHasSolution = findSolution(mGrid, mSolver, mHintNumbers, mSolution);
+        mSolver.clearDeadline();
+        mSolver.setNodeLimit(nodeLimit);
+
+        return mHasSolution;
     }
 
-    public boolean saveToDb(DbHelper dbHelper) {
-        Log.d(LOG_TAG, "Saving board to database.");
+    // Solve |grid| into |solution|, keeping the numbers filled in so far if they lead to a
+    // solution and falling back to only the givens.  |scratch| holds 81 numbers.
+    private static boolean findSolution(Grid grid, Solver solver, byte[] scratch, byte[] solution) {
+        solver.setNodeLimit(HINT_NODE_LIMIT);
 
-        SQLiteDatabase db = dbHelper.getWritableDatabase();
+        grid.copyNumbers(scratch);
+        boolean solved = solver.setPuzzle(scratch) && solver.solve();
+        if (!solved) {
+            for (int i = 0; i < 81; i++) {
+                scratch[i] = grid.isGiven(i) ? (byte) grid.get(i) : 0;
+            }
+            solved = solver.setPuzzle(scratch) && solver.solve();
+        }
+
+        if (solved) {
+            solver.getSolution(solution);
+        }
+        return solved;
+    }
+
+    private Solver loadSolver() {
+        if (mSolver == null) {
+            mSolver = new Solver();
+        }
 
-        boolean hasErrors = false;
+        mSolver.setPuzzle(mGrid.numbers());
 
-        try {
-            // Get the board record for this board.
-            ContentValues boardValues = new ContentValues();
-            boardValues.put(Boards.COL_DIFFICULTY, mDifficulty);
-            boardValues.put(Boards.COL_SEL_BLOCK_X, mSelectedBlockX);
-            boardValues.put(Boards.COL_SEL_BLOCK_Y, mSelectedBlockY);
-            boardValues.put(Boards.COL_SEL_NUMBER, mActionNumber);
-
-            long boardId = db.insert(Boards.TABLE_NAME, null, boardValues);
-            if (boardId == -1) {
-                return false;
+        return mSolver;
+    }
+
+    // The state of a board as it is stored in the database.  Taking one is cheap, so it can be
+    // taken on the UI thread and written on another.
+    public static class SavedState {
+        final int difficulty;
+        final int selectedBlockX;
+        final int selectedBlockY;
+        final int actionNumber;
+        final byte[] cells;
+
+        // The solution of the cells, worked out with solve() so hints do not have to.
+        byte[] solution;
+
+        // The journal of the board and its position when the state was taken.  Once the state
+        // is written, everything before that position can be compacted away.
+        MoveJournal journal;
+        long journalPosition;
+
+        // Set if moves from the journal were replayed on top of the database row, so the state
+        // is newer than the database.
+        boolean replayed;
+
+        // The seed the puzzle was generated from, if hasSeed is set.
+        boolean hasSeed;
+        long seed;
+
+        SavedState(int difficulty, int selectedBlockX, int selectedBlockY, int actionNumber, byte[] cells) {
+            this.difficulty = difficulty;
+            this.selectedBlockX = selectedBlockX;
+            this.selectedBlockY = selectedBlockY;
+            this.actionNumber = actionNumber;
+            this.cells = cells;
+        }
+
+        public int getDifficulty() {
+            return difficulty;
+        }
+
+        // Work out the solution of the saved cells.  Slow on hard puzzles, so call it off the UI
+        // thread.
+        public void solve() {
+            Grid grid = new Grid();
+            byte[] solution = new byte[81];
+            if (grid.unpack(cells) && findSolution(grid, new Solver(), new byte[81], solution)) {
+                this.solution = solution;
             }
+        }
+    }
 
-            ContentValues blockValues = new ContentValues();
-            blockValues.put(Blocks.COL_BOARD_ID, boardId);
+    // Returns the state to save, or null if nothing changed since the last save or load, or the
+    // board was not loaded yet.  The board counts as saved from here on; call
+    // invalidateSavedState() if writing it fails.
+    public SavedState createSavedState() {
+        if (!mLoaded) {
+            return null;
+        }
+        if (mPackedCellsValid && mDirtyCells.isEmpty() && !mStateDirty) {
+            return null;
+        }
 
-            try {
-                db.beginTransaction();
+        // Only the cells that changed have to be packed again.
+        if (mPackedCellsValid) {
+            mGrid.packCells(mPackedCells, mDirtyCells);
+        } else {
+            mGrid.pack(mPackedCells);
+        }
 
-                for (int i = 0; i < mBlocks.length; i++) {
-                    final int number = mBlocks[i].getNumber();
-                    if (number == 0)
-                        continue;
+        Log.d(LOG_TAG, String.format("Saving board (%d dirty cells).", mDirtyCells.size()));
 
-                    blockValues.put(Blocks.COL_INDEX, i);
-                    blockValues.put(Blocks.COL_NUMBER, number);
-                    if (db.insert(Blocks.TABLE_NAME, null, blockValues) == -1) {
-                        hasErrors = true;
-                        Log.e(LOG_TAG, "Could not insert block row.");
-                        break;
-                    }
-                }
+        mPackedCellsValid = true;
+        mDirtyCells.clear();
+        mStateDirty = false;
 
-                if (!hasErrors) {
-                    db.setTransactionSuccessful();
-                }
+        SavedState state = new SavedState(mDifficulty, mSelectedBlockX, mSelectedBlockY, mActionNumber,
+                mPackedCells.clone());
+        state.hasSeed = mHasSeed;
+        state.seed = mSeed;
+        if (mJournal != null) {
+            state.journal = mJournal;
+            state.journalPosition = mJournal.getPosition();
+        }
+        return state;
+    }
+
+    // Forget what was saved last, so the next save writes the whole board.
+    public void invalidateSavedState() {
+        mPackedCellsValid = false;
+        mStateDirty = true;
+    }
+
+    public boolean isLoaded() {
+        return mLoaded;
+    }
+
+    // Called when loading found no saved state, so the board as it is may be saved from now on.
+    public void setLoaded() {
+        mLoaded = true;
+    }
+
+    // Replace the board with a state read from the database.
+    public void applySavedState(SavedState state) {
+        beginUpdate();
+        mLoaded = true;
 
-            } finally {
-                db.endTransaction();
+        // The solution is not saved, it is either solved by the loader or worked out when a hint
+        // needs it.
+        mHasSolution = state.solution != null;
+        if (mHasSolution) {
+            System.arraycopy(state.solution, 0, mSolution, 0, 81);
+        }
+        mHasSeed = state.hasSeed;
+        mSeed = state.seed;
+
+        mSelectedBlockX = state.selectedBlockX;
+        mSelectedBlockY = state.selectedBlockY;
+        mActionNumber = state.actionNumber;
+        mSelectionChanged = true;
+        mActionNumberChanged = true;
+        mChangedCells.addAll();
+        mHistory.clear();
+
+        if (mGrid.unpack(state.cells)) {
+            mDirtyCells.clear();
+            if (state.replayed) {
+                // The database does not have the moves from the journal yet.
+                invalidateSavedState();
+            } else if (Grid.isCurrentPackedVersion(state.cells)) {
+                System.arraycopy(state.cells, 0, mPackedCells, 0, Grid.PACKED_SIZE);
+                mPackedCellsValid = true;
+                mStateDirty = false;
+            } else {
+                // Written in an older format, the next save upgrades it.
+                invalidateSavedState();
             }
-        } finally {
-            db.close();
+        } else {
+            Log.e(LOG_TAG, "Board row has no valid cells.");
+            mGrid.clear();
+            invalidateSavedState();
         }
 
-        return hasErrors;
+        endUpdate();
+    }
+
+    public boolean saveToDb(DbHelper dbHelper) {
+        SavedState state = createSavedState();
+        if (state == null) {
+            Log.d(LOG_TAG, "Board has not changed, nothing to save.");
+            return true;
+        }
+
+        if (!writeSavedState(dbHelper, state)) {
+            invalidateSavedState();
+            return false;
+        }
+
+        return true;
     }
 
     public boolean loadFromDb(DbHelper dbHelper) {
-        Log.d(LOG_TAG, "Loading board from database.");
+        SavedState state = readSavedState(dbHelper, mDifficulty);
+        if (state == null) {
+            setLoaded();
+            return false;
+        }
 
-        SQLiteDatabase db = dbHelper.getReadableDatabase();
+        applySavedState(state);
+        return true;
+    }
+
+    // Write |state| to the database.  Safe to call from any single thread that owns the writes.
+    public static boolean writeSavedState(DbHelper dbHelper, SavedState state) {
+        // The database connection is owned by the helper and stays open.
+        SQLiteDatabase db = dbHelper.getWritableDatabase();
+
+        boolean saved = false;
+        db.beginTransaction();
         try {
+            // Update the row of this difficulty in place, and only insert one if there is none.
+            SQLiteStatement update = dbHelper.getUpdateBoardStatement();
+            update.bindLong(1, state.selectedBlockX);
+            update.bindLong(2, state.selectedBlockY);
+            update.bindLong(3, state.actionNumber);
+            update.bindBlob(4, state.cells);
+            if (state.hasSeed) {
+                update.bindLong(5, state.seed);
+            } else {
+                update.bindNull(5);
+            }
+            update.bindLong(6, state.difficulty);
 
-            // The id of the board in the DB.
-            long boardId = 0;
-
-            // Get the board row first.
-            {
-                final String[] columns = {
-                        Boards._ID,
-                        Boards.COL_DIFFICULTY,
-                        Boards.COL_SEL_BLOCK_X,
-                        Boards.COL_SEL_BLOCK_Y,
-                        Boards.COL_SEL_NUMBER
-                };
-                final String selection = Boards.COL_DIFFICULTY + "=?";
-                final String selectionArgs[] = {String.valueOf(mDifficulty)};
-
-                Cursor cursor = db.query(Boards.TABLE_NAME, columns, selection, selectionArgs, null, null, null);
-                if (cursor.moveToFirst()) {
-                    boardId = cursor.getLong(cursor.getColumnIndex(Boards._ID));
-                    mDifficulty = cursor.getInt(cursor.getColumnIndex(Boards.COL_DIFFICULTY));
-                    mSelectedBlockX = cursor.getInt(cursor.getColumnIndex(Boards.COL_SEL_BLOCK_X));
-                    mSelectedBlockX = cursor.getInt(cursor.getColumnIndex(Boards.COL_SEL_BLOCK_Y));
-                    mActionNumber = cursor.getInt(cursor.getColumnIndex(Boards.COL_SEL_NUMBER));
+            if (update.executeUpdateDelete() > 0) {
+                saved = true;
+            } else {
+                ContentValues boardValues = new ContentValues();
+                boardValues.put(Boards.COL_DIFFICULTY, state.difficulty);
+                boardValues.put(Boards.COL_SEL_BLOCK_X, state.selectedBlockX);
+                boardValues.put(Boards.COL_SEL_BLOCK_Y, state.selectedBlockY);
+                boardValues.put(Boards.COL_SEL_NUMBER, state.actionNumber);
+                boardValues.put(Boards.COL_CELLS, state.cells);
+                if (state.hasSeed) {
+                    boardValues.put(Boards.COL_SEED, state.seed);
                 } else {
-                    return false;
+                    boardValues.putNull(Boards.COL_SEED);
                 }
+
+                saved = db.insert(Boards.TABLE_NAME, null, boardValues) != -1;
             }
 
-            if (boardId == 0) {
-                return false;
+            if (saved) {
+                db.setTransactionSuccessful();
+            } else {
+                Log.e(LOG_TAG, "Could not save board row.");
             }
+        } finally {
+            db.endTransaction();
+        }
 
-            {
-                final String[] columns = {Blocks.COL_INDEX, Blocks.COL_NUMBER};
-                final String selection = Blocks.COL_BOARD_ID + "=?";
-                final String[] selectionArgs = {String.valueOf(boardId)};
+        // The database now has every move journaled before the state was taken.
+        if (saved && state.journal != null) {
+            state.journal.compact(state.journalPosition);
+        }
 
-                Cursor cursor = db.query(Blocks.TABLE_NAME, columns, selection, selectionArgs, null, null, null);
-                if (cursor.moveToFirst()) {
-                    do {
-                        Log.d(LOG_TAG, String.format("block: %d, %d", cursor.getInt(0), cursor.getInt(1)));
+        return saved;
+    }
 
-                        int index = cursor.getInt(cursor.getColumnIndex(Blocks.COL_INDEX));
-                        mBlocks[index].setNumber(cursor.getInt(cursor.getColumnIndex(Blocks.COL_NUMBER)));
-                    } while (cursor.moveToNext());
-                }
+    // Read the saved state for |difficulty|, or null if there is none.
+    public static SavedState readSavedState(DbHelper dbHelper, int difficulty) {
+        Log.d(LOG_TAG, "Loading board from database.");
 
-                for (Listener listener : mListeners) {
-                    listener.onNumbersChanged(0, 0, 0);
-                }
+        SQLiteDatabase db = dbHelper.getReadableDatabase();
+
+        final String[] columns = {
+                Boards.COL_SEL_BLOCK_X,
+                Boards.COL_SEL_BLOCK_Y,
+                Boards.COL_SEL_NUMBER,
+                Boards.COL_CELLS,
+                Boards.COL_SEED
+        };
+        final String selection = Boards.COL_DIFFICULTY + "=?";
+        final String selectionArgs[] = {String.valueOf(difficulty)};
+
+        Cursor cursor = db.query(Boards.TABLE_NAME, columns, selection, selectionArgs, null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                return null;
             }
+
+            SavedState state = new SavedState(difficulty, cursor.getInt(0), cursor.getInt(1), cursor.getInt(2),
+                    cursor.isNull(3) ? null : cursor.getBlob(3));
+            if (!cursor.isNull(4)) {
+                state.hasSeed = true;
+                state.seed = cursor.getLong(4);
+            }
+            return state;
         } finally {
-            db.close();
+            cursor.close();
         }
-
-        return true;
     }
 
 }
@@ -0,0 +1,327 @@
+package com.fizix.android.easysudoku;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.fizix.android.easysudoku.data.DbHelper;
+
+import java.io.File;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+
+// Loads and saves boards on a single background thread, so the UI thread never waits on the
+// database.  The state to save is taken on the UI thread, which is cheap, and only the newest
+// state of every difficulty is written: saves that arrive while an older one is still waiting
+// replace it.  All the work goes through the one long lived connection of the DbHelper.  Every
+// loaded board gets a MoveJournal, which is replayed on load and saved into the database once it
+// grows too big.  There is one persister for the whole process, owned by EasySudokuApplication, so
+// saves and loads from every activity go through the same thread in order.
+public class BoardPersister {
+
+    private static final String LOG_TAG = BoardPersister.class.getSimpleName();
+
+    public interface LoadCallback {
+        // Called on the UI thread once the board was loaded.  |loaded| is false if there was
+        // nothing to load.
+        void onBoardLoaded(Board board, boolean loaded);
+    }
+
+    private static class PendingSave {
+        final Board board;
+        final Board.SavedState state;
+
+        PendingSave(Board board, Board.SavedState state) {
+            this.board = board;
+            this.state = state;
+        }
+    }
+
+    private final DbHelper mDbHelper;
+
+    // Where the journals of the boards are kept.
+    private final File mJournalDir;
+
+    private final ExecutorService mExecutor;
+
+    // Posts results back to the UI thread.
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+
+    // The newest state waiting to be written for every difficulty.  Guarded by itself.
+    private final Map<Integer, PendingSave> mPendingSaves = new HashMap<>();
+
+    private int mCoalescedCount;
+
+    // The board we save whenever its journal grows too big.
+    private Board mWatchedBoard;
+
+    // Generates new puzzles, only used on the background thread.
+    private Generator mGenerator;
+
+    private final Board.Listener mJournalWatcher = new Board.Listener() {
+        @Override
+        public void onSelectedBlockChanged(int x, int y, int number) {
+        }
+
+        @Override
+        public void onActionNumberChanged(int actionNumber) {
+        }
+
+        @Override
+        public void onNumbersChanged(CellSet cells) {
+            final MoveJournal journal = mWatchedBoard.getJournal();
+            if (journal != null && journal.needsCompaction()) {
+                save(mWatchedBoard);
+            }
+        }
+    };
+
+    public BoardPersister(DbHelper dbHelper, File journalDir) {
+        mDbHelper = dbHelper;
+        mJournalDir = journalDir;
+
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                return new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        runnable.run();
+                    }
+                }, LOG_TAG);
+            }
+        });
+    }
+
+    // Queue a save of |board|.  Must be called on the UI thread.
+    public void save(Board board) {
+        final Board.SavedState state = board.createSavedState();
+        if (state == null) {
+            return;
+        }
+
+        final int difficulty = state.getDifficulty();
+
+        synchronized (mPendingSaves) {
+            // If a save of this difficulty is still waiting, it will pick up the new state.
+            if (mPendingSaves.put(difficulty, new PendingSave(board, state)) != null) {
+                mCoalescedCount += 1;
+                return;
+            }
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                final PendingSave save;
+                synchronized (mPendingSaves) {
+                    save = mPendingSaves.remove(difficulty);
+                }
+                if (save == null) {
+                    return;
+                }
+
+                if (!Board.writeSavedState(mDbHelper, save.state)) {
+                    Log.e(LOG_TAG, "Could not save board.");
+
+                    // Make sure the next save writes everything again.
+                    mHandler.post(new Runnable() {
+                        @Override
+                        public void run() {
+                            save.board.invalidateSavedState();
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    // Load |board| in the background and apply it on the UI thread.  Any save queued before this
+    // is written first, so the load always sees it.  Moves in the journal of the board are replayed
+    // on top, and the board keeps journaling from there.
+    public void load(final Board board, final LoadCallback callback) {
+        final int difficulty = board.getDifficulty();
+
+        // What the board starts with if there is no saved state.
+        final Board.SavedState initialState = new Board.SavedState(difficulty,
+                board.getSelectedBlockX(), board.getSelectedBlockY(), board.getActionNumber(),
+                packGrid(board.snapshot()));
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                Board.SavedState savedState = Board.readSavedState(mDbHelper, difficulty);
+
+                final MoveJournal journal = new MoveJournal(getJournalFile(difficulty));
+                if (journal.open()) {
+                    final Board.SavedState replayed = replayJournal(journal,
+                            savedState != null ? savedState : initialState);
+                    if (replayed != null) {
+                        savedState = replayed;
+                    }
+                }
+
+                final Board.SavedState state = savedState;
+
+                // Solve it here, so the first hint does not have to do it on the UI thread.
+                if (state != null) {
+                    state.solve();
+                }
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (state != null) {
+                            board.applySavedState(state);
+                        } else {
+                            board.setLoaded();
+                        }
+                        board.setJournal(journal);
+                        watch(board);
+
+                        if (callback != null) {
+                            callback.onBoardLoaded(board, state != null);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    // Start |board| over with a new puzzle.  One from its bank or queue is taken right away, or else
+    // one is generated in the background, which can take too long for the UI thread, and the board
+    // starts over with it on the UI thread.  Must be called on the UI thread.
+    public void createNew(Board board) {
+        if (!board.createNew()) {
+            generate(board, false, 0);
+        }
+    }
+
+    // Generate the puzzle of |seed| for the difficulty of |board| in the background, and start the
+    // board over with it on the UI thread.  Seeded puzzles are only bounded by the node budget.
+    // Must be called on the UI thread.
+    public void createNew(Board board, long seed) {
+        generate(board, true, seed);
+    }
+
+    private void generate(final Board board, final boolean seeded, final long seed) {
+        final int difficulty = board.getDifficulty();
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (mGenerator == null) {
+                    mGenerator = new Generator(new Random());
+                }
+
+                final byte[] puzzle = new byte[81];
+                final byte[] solution = new byte[81];
+                final int rating;
+                if (seeded) {
+                    rating = mGenerator.generate(puzzle, solution, difficulty, seed);
+                } else {
+                    rating = mGenerator.generate(puzzle, solution, difficulty);
+                }
+                Log.d(LOG_TAG, String.format("Generated board rated %d in %.2f ms (%d nodes).",
+                        rating, mGenerator.getLastElapsedNanos() / 1000000.0, mGenerator.getLastNodeCount()));
+
+                mHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (seeded) {
+                            board.setSeededPuzzle(seed, puzzle, solution);
+                        } else {
+                            board.setGeneratedPuzzle(puzzle, solution);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    // Save |board| and stop journaling it.  A board whose load was not applied yet is not saved,
+    // its placeholder must not replace the row.  Must be called on the UI thread.
+    public void release(Board board) {
+        save(board);
+
+        if (mWatchedBoard == board) {
+            watch(null);
+        }
+
+        final MoveJournal journal = board.getJournal();
+        board.setJournal(null);
+        if (journal != null) {
+            // Closed after the save above compacted it.
+            mExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    journal.close();
+                }
+            });
+        }
+    }
+
+    private void watch(Board board) {
+        if (mWatchedBoard != null) {
+            mWatchedBoard.removeListener(mJournalWatcher);
+        }
+        mWatchedBoard = board;
+        if (mWatchedBoard != null) {
+            mWatchedBoard.addListener(mJournalWatcher);
+        }
+    }
+
+    private File getJournalFile(int difficulty) {
+        return new File(mJournalDir, "board_" + difficulty + ".journal");
+    }
+
+    // Apply the moves in |journal| to |state| and return the result, or null if there was nothing
+    // to replay.
+    private static Board.SavedState replayJournal(MoveJournal journal, Board.SavedState state) {
+        final Grid grid = new Grid();
+        if (state.cells == null || !grid.unpack(state.cells)) {
+            grid.clear();
+        }
+
+        final int records = journal.replay(grid);
+        if (records == 0) {
+            return null;
+        }
+
+        Log.d(LOG_TAG, "Replayed " + records + " journal records.");
+
+        Board.SavedState replayed = new Board.SavedState(state.difficulty, state.selectedBlockX,
+                state.selectedBlockY, state.actionNumber, packGrid(grid));
+        replayed.replayed = true;
+
+        // A new puzzle started after the save brings its own seed.
+        if (journal.hasReplayedSnapshot()) {
+            replayed.hasSeed = journal.hasReplayedSeed();
+            replayed.seed = journal.getReplayedSeed();
+        } else {
+            replayed.hasSeed = state.hasSeed;
+            replayed.seed = state.seed;
+        }
+        return replayed;
+    }
+
+    private static byte[] packGrid(Grid grid) {
+        final byte[] packed = new byte[Grid.PACKED_SIZE];
+        grid.pack(packed);
+        return packed;
+    }
+
+    public int getCoalescedCount() {
+        synchronized (mPendingSaves) {
+            return mCoalescedCount;
+        }
+    }
+
+}
@@ -0,0 +1,357 @@
+package com.fizix.android.easysudoku;
+
+
+// Maps a grid to its canonical form: the smallest grid that can be reached with the moves that
+// keep a sudoku a sudoku.  Those are transposing, swapping bands and stacks, swapping rows within
+// a band and columns within a stack, and relabeling the digits.  Two puzzles are the same puzzle
+// under a symmetry exactly when they have the same canonical form, so its fingerprint can be used
+// to find duplicates.
+//
+// Grids are ordered by which cells are empty first, and then by their numbers cell by cell in row
+// major order.  The empty cells do not depend on the digits, so for each of the 2592 orders of
+// the columns, with and without transposing, the smallest pattern of empty cells is found by
+// sorting the rows of every band and then the bands, as 9 bit masks.  Only the column orders that
+// reach the smallest pattern go on to a depth first search over the rows that fit it, which
+// relabels the digits in order of first appearance and drops a row as soon as it comes out bigger
+// than the same row of the smallest grid found so far.  For puzzles that leaves only a handful of
+// searches; a full grid has no empty cells to go by and takes much longer.  All the state is
+// preallocated, so a canonicalizer can be reused without allocating, but it must not be shared
+// between threads.
+public final class Canonicalizer {
+
+    private static final int[][] ORDERS = Transform.ORDERS;
+
+    private static final long FNV_OFFSET_BASIS = 0xCBF29CE484222325L;
+    private static final long FNV_PRIME = 0x100000001B3L;
+
+    // The grid, and the grid transposed.
+    private final byte[] mNumbers = new byte[81];
+    private final byte[] mTransposed = new byte[81];
+
+    // PERMUTED[order][bits] is 3 bits of a row mask with the columns of a stack in |order|.
+    private static final int[][] PERMUTED = new int[ORDERS.length][8];
+
+    static {
+        for (int order = 0; order < ORDERS.length; order++) {
+            for (int bits = 0; bits < 8; bits++) {
+                int permuted = 0;
+                for (int i = 0; i < 3; i++) {
+                    if ((bits & (4 >> ORDERS[order][i])) != 0) {
+                        permuted |= 4 >> i;
+                    }
+                }
+                PERMUTED[order][bits] = permuted;
+            }
+        }
+    }
+
+    // SMALLEST[bits] is the smallest 3 bits any order of the columns of a stack can make.
+    private static final int[] SMALLEST = new int[8];
+
+    static {
+        for (int bits = 0; bits < 8; bits++) {
+            SMALLEST[bits] = (1 << Integer.bitCount(bits)) - 1;
+        }
+    }
+
+    // Which cells of every row are filled in, column 0 in the highest of 9 bits, for the grid and
+    // the grid transposed.
+    private final int[] mMasks = new int[9];
+    private final int[] mTransposedMasks = new int[9];
+
+    // The grid we are ordering the rows of, and which column goes where.
+    private byte[] mSource;
+    private final int[] mColumnOrder = new int[9];
+
+    // The row masks with the columns in order, the same with only the first one or two stacks in
+    // order, the smallest pattern they can be sorted into, and the smallest pattern found so far.
+    private final int[] mRowMasks = new int[9];
+    private final int[] mHighMasks = new int[9];
+    private final int[] mMiddleMasks = new int[9];
+    private final int[] mPattern = new int[9];
+    private final int[] mBestPattern = new int[9];
+    private boolean mHasBestPattern;
+
+    // The rows picked so far, relabeled, and the smallest grid found so far.
+    private final byte[] mCurrent = new byte[81];
+    private final byte[] mBest = new byte[81];
+    private boolean mHasBest;
+
+    // Bumped every time a smaller grid is found.
+    private int mBestVersion;
+
+    // The digit labels after every row that was picked, and the last label handed out.
+    private final byte[][] mLabels = new byte[10][10];
+    private final int[] mLastLabel = new int[10];
+
+    private final boolean[] mRowUsed = new boolean[9];
+    private final boolean[] mBandUsed = new boolean[3];
+    private final int[] mBandAt = new int[3];
+
+    public Canonicalizer() {
+    }
+
+    // Write the canonical form of the 81 |numbers| into |out|.
+    public void canonicalize(byte[] numbers, byte[] out) {
+        for (int i = 0; i < 9; i++) {
+            mMasks[i] = 0;
+            mTransposedMasks[i] = 0;
+        }
+        for (int i = 0; i < 81; i++) {
+            final int row = i / 9;
+            final int col = i % 9;
+            mNumbers[i] = numbers[i];
+            mTransposed[col * 9 + row] = numbers[i];
+            if (numbers[i] != 0) {
+                mMasks[row] |= 256 >> col;
+                mTransposedMasks[col] |= 256 >> row;
+            }
+        }
+
+        mHasBestPattern = false;
+        mHasBest = false;
+        for (int transpose = 0; transpose < 2; transpose++) {
+            mSource = transpose == 0 ? mNumbers : mTransposed;
+            final int[] masks = transpose == 0 ? mMasks : mTransposedMasks;
+
+            for (int[] stacks : ORDERS) {
+                for (int first = 0; first < ORDERS.length; first++) {
+                    // The first row of the pattern is its smallest row.  If no row can come out as
+                    // small as the first row of the best pattern, whatever order the columns that
+                    // are left go in, none of those orders can make a better pattern.
+                    int smallest = Integer.MAX_VALUE;
+                    for (int row = 0; row < 9; row++) {
+                        final int mask = masks[row];
+                        mHighMasks[row] = PERMUTED[first][(mask >> (6 - stacks[0] * 3)) & 7] << 6;
+                        smallest = Math.min(smallest, mHighMasks[row]
+                                | SMALLEST[(mask >> (6 - stacks[1] * 3)) & 7] << 3
+                                | SMALLEST[(mask >> (6 - stacks[2] * 3)) & 7]);
+                    }
+                    if (mHasBestPattern && smallest > mBestPattern[0]) {
+                        continue;
+                    }
+
+                    for (int second = 0; second < ORDERS.length; second++) {
+                        smallest = Integer.MAX_VALUE;
+                        for (int row = 0; row < 9; row++) {
+                            final int mask = masks[row];
+                            mMiddleMasks[row] = mHighMasks[row]
+                                    | PERMUTED[second][(mask >> (6 - stacks[1] * 3)) & 7] << 3;
+                            smallest = Math.min(smallest, mMiddleMasks[row]
+                                    | SMALLEST[(mask >> (6 - stacks[2] * 3)) & 7]);
+                        }
+                        if (mHasBestPattern && smallest > mBestPattern[0]) {
+                            continue;
+                        }
+
+                        for (int third = 0; third < ORDERS.length; third++) {
+                            for (int row = 0; row < 9; row++) {
+                                mRowMasks[row] = mMiddleMasks[row]
+                                        | PERMUTED[third][(masks[row] >> (6 - stacks[2] * 3)) & 7];
+                            }
+
+                            sortPattern();
+                            final int compare = comparePattern();
+                            if (compare > 0) {
+                                continue;
+                            }
+                            if (compare < 0) {
+                                System.arraycopy(mPattern, 0, mBestPattern, 0, 9);
+                                mHasBestPattern = true;
+                                mHasBest = false;
+                            }
+
+                            for (int i = 0; i < 3; i++) {
+                                mColumnOrder[i] = stacks[0] * 3 + ORDERS[first][i];
+                                mColumnOrder[3 + i] = stacks[1] * 3 + ORDERS[second][i];
+                                mColumnOrder[6 + i] = stacks[2] * 3 + ORDERS[third][i];
+                            }
+                            search(0, mHasBest);
+                        }
+                    }
+                }
+            }
+        }
+
+        System.arraycopy(mBest, 0, out, 0, 81);
+    }
+
+    // A 64 bit fingerprint of the canonical form of |numbers|, which is the same for every
+    // puzzle that is the same under a symmetry.
+    public long fingerprint(byte[] numbers) {
+        canonicalize(numbers, mCurrent);
+
+        // FNV-1a over the cells.
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < 81; i++) {
+            hash ^= mCurrent[i];
+            hash *= FNV_PRIME;
+        }
+        return hash;
+    }
+
+    // Sort the row masks into the smallest pattern they can make: the rows of every band in order,
+    // then the bands in order of their rows.
+    private void sortPattern() {
+        for (int band = 0; band < 3; band++) {
+            int a = mRowMasks[band * 3];
+            int b = mRowMasks[band * 3 + 1];
+            int c = mRowMasks[band * 3 + 2];
+            int t;
+            if (a > b) {
+                t = a;
+                a = b;
+                b = t;
+            }
+            if (b > c) {
+                t = b;
+                b = c;
+                c = t;
+            }
+            if (a > b) {
+                t = a;
+                a = b;
+                b = t;
+            }
+            mPattern[band * 3] = a;
+            mPattern[band * 3 + 1] = b;
+            mPattern[band * 3 + 2] = c;
+        }
+
+        if (compareBands(0, 1) > 0) {
+            swapBands(0, 1);
+        }
+        if (compareBands(1, 2) > 0) {
+            swapBands(1, 2);
+        }
+        if (compareBands(0, 1) > 0) {
+            swapBands(0, 1);
+        }
+    }
+
+    private int compareBands(int first, int second) {
+        for (int i = 0; i < 3; i++) {
+            final int a = mPattern[first * 3 + i];
+            final int b = mPattern[second * 3 + i];
+            if (a != b) {
+                return a < b ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    private void swapBands(int first, int second) {
+        for (int i = 0; i < 3; i++) {
+            final int t = mPattern[first * 3 + i];
+            mPattern[first * 3 + i] = mPattern[second * 3 + i];
+            mPattern[second * 3 + i] = t;
+        }
+    }
+
+    private int comparePattern() {
+        if (!mHasBestPattern) {
+            return -1;
+        }
+        for (int i = 0; i < 9; i++) {
+            if (mPattern[i] != mBestPattern[i]) {
+                return mPattern[i] < mBestPattern[i] ? -1 : 1;
+            }
+        }
+        return 0;
+    }
+
+    // Pick the row that goes at |depth|.  |equal| is set if the rows picked so far are the same
+    // as the first rows of the smallest grid.  The pattern of the rows picked so far is the same
+    // as the smallest pattern.
+    private void search(int depth, boolean equal) {
+        final int band = depth / 3;
+
+        for (int row = 0; row < 9; row++) {
+            if (mRowUsed[row]) {
+                continue;
+            }
+
+            // The first row of a band may come from any band not used yet, the others must come
+            // from the same band.
+            final int rowBand = row / 3;
+            if (depth % 3 == 0 ? mBandUsed[rowBand] : rowBand != mBandAt[band]) {
+                continue;
+            }
+
+            // Only rows that keep the smallest pattern of empty cells.
+            if (mRowMasks[row] != mBestPattern[depth]) {
+                continue;
+            }
+
+            final int compare = relabelRow(depth, row, equal);
+            if (compare > 0) {
+                continue;
+            }
+
+            if (depth == 8) {
+                if (compare < 0 || !mHasBest) {
+                    System.arraycopy(mCurrent, 0, mBest, 0, 81);
+                    mHasBest = true;
+                    mBestVersion += 1;
+                }
+                continue;
+            }
+
+            mRowUsed[row] = true;
+            if (depth % 3 == 0) {
+                mBandUsed[rowBand] = true;
+                mBandAt[band] = rowBand;
+            }
+
+            final int version = mBestVersion;
+            search(depth + 1, compare == 0 && mHasBest);
+
+            mRowUsed[row] = false;
+            if (depth % 3 == 0) {
+                mBandUsed[rowBand] = false;
+            }
+
+            // A smaller grid was found below this row, so it starts with the rows picked before
+            // this one.
+            if (mBestVersion != version) {
+                equal = true;
+            }
+        }
+    }
+
+    // Relabel |row| into row |depth| of the current grid, continuing the labels of the rows
+    // before it.  If |equal| is set, the row is compared with the same row of the smallest grid,
+    // and the result is returned as soon as it is known.  Returns -1 if it is smaller, or if it
+    // was not compared, 0 if it is the same and 1 if it is bigger.
+    private int relabelRow(int depth, int row, boolean equal) {
+        final byte[] labels = mLabels[depth + 1];
+        System.arraycopy(mLabels[depth], 0, labels, 0, 10);
+        int lastLabel = mLastLabel[depth];
+
+        final int offset = depth * 9;
+        int compare = equal ? 0 : -1;
+        for (int i = 0; i < 9; i++) {
+            final int number = mSource[row * 9 + mColumnOrder[i]];
+            if (number != 0 && labels[number] == 0) {
+                lastLabel += 1;
+                labels[number] = (byte) lastLabel;
+            }
+
+            final byte label = labels[number];
+            mCurrent[offset + i] = label;
+
+            if (compare == 0) {
+                if (label > mBest[offset + i]) {
+                    return 1;
+                }
+                if (label < mBest[offset + i]) {
+                    compare = -1;
+                }
+            }
+        }
+
+        mLastLabel[depth + 1] = lastLabel;
+        return compare;
+    }
+
+}
@@ -0,0 +1,159 @@
+package com.fizix.android.easysudoku;
+
+
+// A set of cells on the board stored as an 81 bit bitmap.  Cells 0 to 63 live in the low word and
+// cells 64 to 80 in the high word.
+public final class CellSet {
+
+    // The number of bytes a set takes when written with toBytes().
+    public static final int BYTES = 11;
+
+    private long mLow;
+    private long mHigh;
+
+    public CellSet() {
+    }
+
+    public CellSet(CellSet other) {
+        mLow = other.mLow;
+        mHigh = other.mHigh;
+    }
+
+    public boolean contains(int index) {
+        assert (index >= 0 && index < 81);
+        if (index < 64) {
+            return (mLow & (1L << index)) != 0;
+        }
+        return (mHigh & (1L << (index - 64))) != 0;
+    }
+
+    public void add(int index) {
+        assert (index >= 0 && index < 81);
+        if (index < 64) {
+            mLow |= 1L << index;
+        } else {
+            mHigh |= 1L << (index - 64);
+        }
+    }
+
+    public void remove(int index) {
+        assert (index >= 0 && index < 81);
+        if (index < 64) {
+            mLow &= ~(1L << index);
+        } else {
+            mHigh &= ~(1L << (index - 64));
+        }
+    }
+
+    public void set(int index, boolean value) {
+        if (value) {
+            add(index);
+        } else {
+            remove(index);
+        }
+    }
+
+    public void addAll(CellSet other) {
+        mLow |= other.mLow;
+        mHigh |= other.mHigh;
+    }
+
+    public void addAll() {
+        mLow = -1L;
+        mHigh = (1L << 17) - 1;
+    }
+
+    public void copyFrom(CellSet other) {
+        mLow = other.mLow;
+        mHigh = other.mHigh;
+    }
+
+    public void clear() {
+        mLow = 0;
+        mHigh = 0;
+    }
+
+    public boolean isEmpty() {
+        return mLow == 0 && mHigh == 0;
+    }
+
+    public int size() {
+        return Long.bitCount(mLow) + Long.bitCount(mHigh);
+    }
+
+    // Returns the first cell in the set at or after |index|, or -1 if there is none.
+    public int nextSetBit(int index) {
+        if (index < 64) {
+            final long low = mLow & (-1L << index);
+            if (low != 0) {
+                return Long.numberOfTrailingZeros(low);
+            }
+            index = 64;
+        }
+
+        if (index < 81) {
+            final long high = mHigh & (-1L << (index - 64));
+            if (high != 0) {
+                return 64 + Long.numberOfTrailingZeros(high);
+            }
+        }
+
+        return -1;
+    }
+
+    public long getLow() {
+        return mLow;
+    }
+
+    public long getHigh() {
+        return mHigh;
+    }
+
+    public void setBits(long low, long high) {
+        mLow = low;
+        mHigh = high;
+    }
+
+    // Write the set as 11 little endian bytes starting at |offset|.
+    public void toBytes(byte[] out, int offset) {
+        for (int i = 0; i < 8; i++) {
+            out[offset + i] = (byte) (mLow >>> (i * 8));
+        }
+        for (int i = 0; i < 3; i++) {
+            out[offset + 8 + i] = (byte) (mHigh >>> (i * 8));
+        }
+    }
+
+    // Read a set written by toBytes().
+    public void fromBytes(byte[] in, int offset) {
+        long low = 0;
+        for (int i = 0; i < 8; i++) {
+            low |= (in[offset + i] & 0xFFL) << (i * 8);
+        }
+        long high = 0;
+        for (int i = 0; i < 3; i++) {
+            high |= (in[offset + 8 + i] & 0xFFL) << (i * 8);
+        }
+        mLow = low;
+        mHigh = high & ((1L << 17) - 1);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof CellSet)) {
+            return false;
+        }
+        CellSet other = (CellSet) o;
+        return mLow == other.mLow && mHigh == other.mHigh;
+    }
+
+    @Override
+    public int hashCode() {
+        final long bits = mLow * 31 + mHigh;
+        return (int) (bits ^ (bits >>> 32));
+    }
+
+}
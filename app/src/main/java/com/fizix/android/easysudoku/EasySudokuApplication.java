@@ -0,0 +1,101 @@
+package com.fizix.android.easysudoku;
+
+import android.app.Application;
+import android.content.Context;
+import android.os.Process;
+import android.util.Log;
+
+import com.fizix.android.easysudoku.data.DbHelper;
+
+import java.io.File;
+import java.io.IOException;
+
+
+// Owns what has to live as long as the process rather than an activity: the database connection,
+// the persister with its single background thread, the queue of new puzzles and the puzzle bank.
+// Activities come and go on every rotation, and a second persister or queue would race the first
+// one over the same rows and journals.
+public class EasySudokuApplication extends Application {
+
+    private static final String LOG_TAG = EasySudokuApplication.class.getSimpleName();
+
+    private static final String PUZZLE_BANK_FILE = "puzzles.bank";
+
+    private DbHelper mDbHelper;
+    private BoardPersister mPersister;
+    private PuzzleQueue mPuzzleQueue;
+
+    // Curated puzzles for new games, null until there is a bank.  Mapped once for the process;
+    // a mapping can not be closed and is only released when the bank is collected.
+    private volatile PuzzleBank mPuzzleBank;
+
+    public static EasySudokuApplication get(Context context) {
+        return (EasySudokuApplication) context.getApplicationContext();
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+
+        mDbHelper = new DbHelper(this);
+        mPersister = new BoardPersister(mDbHelper, getFilesDir());
+
+        // Start filling the queue of new puzzles in the background.  It runs for as long as the
+        // process does, and sleeps while every queue is full.
+        mPuzzleQueue = new PuzzleQueue(mDbHelper);
+        mPuzzleQueue.start();
+
+        // Mapping the bank is cheap, puzzles are only read when a new game starts.
+        mPuzzleBank = PuzzleBank.open(getPuzzleBankFile());
+        if (mPuzzleBank == null) {
+            buildPuzzleBank();
+        }
+    }
+
+    private File getPuzzleBankFile() {
+        return new File(getFilesDir(), PUZZLE_BANK_FILE);
+    }
+
+    // Build the bank from the imported puzzles in the background, if there are any.  Boards
+    // created once it is done pick their puzzles from it.  It is written to a temporary file first,
+    // so a kill never leaves half a bank behind.
+    private void buildPuzzleBank() {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+
+                final File file = getPuzzleBankFile();
+                final File temp = new File(file.getPath() + ".tmp");
+                try {
+                    final int count = PuzzleBank.build(mDbHelper, temp);
+                    if (count > 0 && temp.renameTo(file)) {
+                        Log.d(LOG_TAG, "Built a puzzle bank of " + count + " puzzles.");
+                        mPuzzleBank = PuzzleBank.open(file);
+                    }
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Could not build the puzzle bank.", e);
+                } finally {
+                    temp.delete();
+                }
+            }
+        }, PuzzleBank.class.getSimpleName()).start();
+    }
+
+    public DbHelper getDbHelper() {
+        return mDbHelper;
+    }
+
+    public BoardPersister getPersister() {
+        return mPersister;
+    }
+
+    public PuzzleQueue getPuzzleQueue() {
+        return mPuzzleQueue;
+    }
+
+    public PuzzleBank getPuzzleBank() {
+        return mPuzzleBank;
+    }
+
+}
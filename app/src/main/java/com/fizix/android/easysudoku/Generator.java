@@ -0,0 +1,284 @@
+package com.fizix.android.easysudoku;
+
+import java.util.Random;
+
+
+// Generates puzzles that have exactly one solution.  A full grid is created and transformed, then
+// blocks are removed in random order, keeping a removal only if the puzzle still has a unique
+// solution and the Rater says it stays within the techniques of the difficulty.  Digging one grid
+// is bounded by a time and a solver node budget, and grids are tried until one needs the
+// techniques of the difficulty.  A puzzle can also be generated from a seed, bounded by the node
+// budget alone, so the same seed always gives the same puzzle.
+public class Generator {
+
+    // Default budgets for digging a single grid.
+    public static final long DEFAULT_TIME_BUDGET_NANOS = 100L * 1000L * 1000L;
+    public static final long DEFAULT_NODE_BUDGET = 1000000L;
+
+    // Random numbers for unseeded puzzles, and the ones seeded puzzles are generated from.  Seeding
+    // the first would make every puzzle after a seeded one predictable.
+    private final Random mUnseededRandom;
+    private final Random mSeededRandom = new Random();
+
+    // The one the puzzle being generated uses.
+    private Random mRandom;
+
+    // Solver used to check for unique solutions.
+    private final Solver mSolver = new Solver();
+
+    // Rater used to keep the puzzle within the techniques allowed for the difficulty.
+    private final Rater mRater = new Rater();
+
+    // Moves every new grid to a random spot in its symmetry group.
+    private final Transform mTransform = new Transform();
+
+    // The order in which blocks are tried for removal.
+    private final int[] mOrder = new int[81];
+
+    private long mTimeBudgetNanos = DEFAULT_TIME_BUDGET_NANOS;
+    private long mNodeBudget = DEFAULT_NODE_BUDGET;
+
+    // Solver nodes used by the grid being dug, and when it has to be done by if the time budget
+    // applies.
+    private long mNodeCount;
+    private boolean mTimeBounded;
+    private long mDeadline;
+
+    // Stats about the last puzzle that was generated.
+    private long mLastElapsedNanos;
+    private long mLastNodeCount;
+    private int mLastBlocksRemoved;
+
+    public Generator(Random random) {
+        mUnseededRandom = random;
+        mRandom = random;
+    }
+
+    public void setTimeBudgetNanos(long timeBudgetNanos) {
+        mTimeBudgetNanos = timeBudgetNanos;
+    }
+
+    public void setNodeBudget(long nodeBudget) {
+        mNodeBudget = nodeBudget;
+    }
+
+    public long getLastElapsedNanos() {
+        return mLastElapsedNanos;
+    }
+
+    public long getLastNodeCount() {
+        return mLastNodeCount;
+    }
+
+    public int getLastBlocksRemoved() {
+        return mLastBlocksRemoved;
+    }
+
+    // The hardest technique a puzzle of |difficulty| must need.  The ranges of the difficulties do
+    // not overlap, so getDifficulty() files every generated puzzle under its own difficulty.
+    // X-Wing alone would make for rare hard puzzles: only about one grid in 150 digs out to one.
+    public static int getMinTechnique(int difficulty) {
+        switch (difficulty) {
+            case Board.DIFFICULTY_MEDIUM:
+                return Rater.TECHNIQUE_LOCKED_CANDIDATES;
+
+            case Board.DIFFICULTY_HARD:
+                return Rater.TECHNIQUE_NAKED_PAIR;
+        }
+
+        return Rater.TECHNIQUE_NONE;
+    }
+
+    // The hardest technique a puzzle of |difficulty| may need.  Even hard puzzles can be finished
+    // with the techniques the rater knows, so they never need trial and error.
+    public static int getMaxTechnique(int difficulty) {
+        switch (difficulty) {
+            case Board.DIFFICULTY_EASY:
+                return Rater.TECHNIQUE_NAKED_SINGLE;
+
+            case Board.DIFFICULTY_MEDIUM:
+                return Rater.TECHNIQUE_LOCKED_CANDIDATES;
+        }
+
+        return Rater.TECHNIQUE_X_WING;
+    }
+
+    // The easiest difficulty that allows a puzzle with |rating|.  Imported puzzles that need trial
+    // and error are filed as hard too.
+    public static int getDifficulty(int rating) {
+        if (rating <= getMaxTechnique(Board.DIFFICULTY_EASY)) {
+            return Board.DIFFICULTY_EASY;
+        }
+        if (rating <= getMaxTechnique(Board.DIFFICULTY_MEDIUM)) {
+            return Board.DIFFICULTY_MEDIUM;
+        }
+        return Board.DIFFICULTY_HARD;
+    }
+
+    // Fill out the grid with sequential numbers that form a valid solution.
+    public static void fillGrid(byte[] grid) {
+        int start = 1;
+        for (int y = 0; y < 9; y++) {
+            int current = start + (y % 3 * 3);
+            for (int x = 0; x < 9; x++) {
+                grid[y * 9 + x] = (byte) current;
+                current = current + 1;
+                if (current > 9) {
+                    current = 1;
+                }
+            }
+            if (y == 2 || y == 5) {
+                start += 1;
+            }
+        }
+    }
+
+    static void swapRows(byte[] grid, int row1, int row2) {
+        assert (row1 >= 0 && row1 < 9);
+        assert (row2 >= 0 && row2 < 9);
+
+        for (int i = 0; i < 9; i++) {
+            final int index1 = row1 * 9 + i;
+            final int index2 = row2 * 9 + i;
+
+            final byte temp = grid[index1];
+            grid[index1] = grid[index2];
+            grid[index2] = temp;
+        }
+    }
+
+    static void swapColumns(byte[] grid, int col1, int col2) {
+        assert (col1 >= 0 && col1 < 9);
+        assert (col2 >= 0 && col2 < 9);
+
+        for (int i = 0; i < 9; i++) {
+            final int index1 = i * 9 + col1;
+            final int index2 = i * 9 + col2;
+
+            final byte temp = grid[index1];
+            grid[index1] = grid[index2];
+            grid[index2] = temp;
+        }
+    }
+
+    // Move |grid| by a random element of the symmetry group: bands, stacks, the rows and columns
+    // within them, transposing and relabeling the digits, all in one pass over the cells.
+    public void shuffle(byte[] grid) {
+        mTransform.setRandom(mRandom);
+        mTransform.apply(grid);
+    }
+
+    // Generate a new puzzle for |difficulty| into |puzzle| and its solution into |solution|, and
+    // return its rating.  Grids are dug out until no more blocks can be removed without losing
+    // the unique solution or going over the hardest technique the difficulty allows.  If the
+    // result does not need the easiest technique the difficulty asks for, it would be filed under
+    // an easier difficulty, so a new grid is tried.  The budgets apply to each grid.
+    public int generate(byte[] puzzle, byte[] solution, int difficulty) {
+        return generate(puzzle, solution, difficulty, true);
+    }
+
+    // Generate the puzzle for |seed| and |difficulty|.  Only the node budget bounds the work and
+    // java.util.Random is the same everywhere, so a seed and difficulty give the same puzzle on
+    // every run and every device, and can stand in for storing the puzzle itself.
+    public int generate(byte[] puzzle, byte[] solution, int difficulty, long seed) {
+        mSeededRandom.setSeed(seed);
+        mRandom = mSeededRandom;
+        try {
+            return generate(puzzle, solution, difficulty, false);
+        } finally {
+            mRandom = mUnseededRandom;
+        }
+    }
+
+    // The seed of the daily puzzle of a date, |month| from 1 to 12.
+    public static long getDailySeed(int year, int month, int day) {
+        return mix(year * 10000L + month * 100L + day);
+    }
+
+    // SplitMix64 finalizer, used to derive independent seeds from related numbers.
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+        z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+        return z ^ (z >>> 31);
+    }
+
+    private int generate(byte[] puzzle, byte[] solution, int difficulty, boolean timeBounded) {
+        final long startTime = System.nanoTime();
+        mTimeBounded = timeBounded;
+
+        final int minTechnique = getMinTechnique(difficulty);
+        final int maxTechnique = getMaxTechnique(difficulty);
+
+        long nodeCount = 0;
+        int rating;
+        int blocksRemoved;
+        do {
+            mNodeCount = 0;
+            mDeadline = System.nanoTime() + mTimeBudgetNanos;
+
+            fillGrid(solution);
+            shuffle(solution);
+            System.arraycopy(solution, 0, puzzle, 0, 81);
+
+            blocksRemoved = dig(puzzle, maxTechnique);
+            rating = mRater.rate(puzzle);
+            nodeCount += mNodeCount;
+        } while (rating < minTechnique);
+
+        mLastElapsedNanos = System.nanoTime() - startTime;
+        mLastNodeCount = nodeCount;
+        mLastBlocksRemoved = blocksRemoved;
+
+        return rating;
+    }
+
+    // Remove blocks from |puzzle| in random order while the solution stays unique and the puzzle
+    // does not need anything harder than |maxTechnique|.  Returns the number of blocks removed.
+    private int dig(byte[] puzzle, int maxTechnique) {
+        // Shuffle the order in which we try to remove blocks.  It starts over from the same order
+        // every time, so a seeded puzzle does not depend on what was generated before it.
+        for (int i = 0; i < mOrder.length; i++) {
+            mOrder[i] = i;
+        }
+        for (int i = mOrder.length - 1; i > 0; i--) {
+            final int j = mRandom.nextInt(i + 1);
+            final int temp = mOrder[i];
+            mOrder[i] = mOrder[j];
+            mOrder[j] = temp;
+        }
+
+        int blocksRemoved = 0;
+        for (int i = 0; i < mOrder.length; i++) {
+            if (isOverBudget()) {
+                break;
+            }
+
+            final int index = mOrder[i];
+            final byte number = puzzle[index];
+            puzzle[index] = 0;
+
+            mSolver.setPuzzle(puzzle);
+            mSolver.setNodeLimit(mNodeBudget - mNodeCount);
+            final int solutions = mSolver.countSolutions(2);
+            mNodeCount += mSolver.getNodeCount();
+
+            boolean keep = solutions == 1 && !mSolver.isAborted();
+            if (keep && maxTechnique < Rater.TECHNIQUE_TRIAL) {
+                keep = mRater.rate(puzzle) <= maxTechnique;
+            }
+
+            if (keep) {
+                blocksRemoved += 1;
+            } else {
+                puzzle[index] = number;
+            }
+        }
+
+        return blocksRemoved;
+    }
+
+    private boolean isOverBudget() {
+        return mNodeCount >= mNodeBudget || (mTimeBounded && System.nanoTime() - mDeadline > 0);
+    }
+
+}
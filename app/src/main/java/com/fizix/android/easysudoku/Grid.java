@@ -0,0 +1,366 @@
+package com.fizix.android.easysudoku;
+
+import java.util.Arrays;
+
+
+// The primitive state of a board: one byte per cell for the numbers, bit flags for which cells are
+// givens and which were filled in by the user, the pencil marks of every cell, and counts and
+// masks of the digits used in every row, column and box, kept up to date on every change.  A grid
+// is cheap to copy, compare and hash, so many of them can be kept around as snapshots.
+public final class Grid {
+
+    // The packed format written by pack(): a version byte, the numbers as 4 bits per cell, a
+    // bitmap of the givens and 9 bits of pencil marks per cell.  Cells that are not given but have
+    // a number are user entries.  Version 1 had no pencil marks and can still be read.
+    public static final int PACKED_VERSION = 2;
+    public static final int PACKED_NUMBERS_SIZE = 41;
+    public static final int PACKED_MARKS_SIZE = (81 * 9 + 7) / 8;
+    public static final int PACKED_SIZE = 1 + PACKED_NUMBERS_SIZE + CellSet.BYTES + PACKED_MARKS_SIZE;
+
+    private static final int PACKED_VERSION_NO_MARKS = 1;
+    private static final int PACKED_SIZE_NO_MARKS = 1 + PACKED_NUMBERS_SIZE + CellSet.BYTES;
+    private static final int PACKED_MARKS_OFFSET = PACKED_SIZE_NO_MARKS;
+
+    // The numbers on the grid in row major order, 0 for empty.
+    private final byte[] mNumbers = new byte[81];
+
+    // Cells that are part of the puzzle and cells the user filled in.
+    private final CellSet mGivens = new CellSet();
+    private final CellSet mUserEntries = new CellSet();
+
+    // The pencil marks of every cell (bit n set means digit n is marked).
+    private final short[] mMarks = new short[81];
+
+    // The digits used in each row, column and box (bit n set means digit n is used).
+    private final int[] mRowMasks = new int[9];
+    private final int[] mColMasks = new int[9];
+    private final int[] mBoxMasks = new int[9];
+
+    // How often every digit is used in every row (0-8), column (9-17) and box (18-26), at
+    // unit * 10 + digit.  A count above one is a conflict.
+    private final byte[] mCounts = new byte[27 * 10];
+
+    public Grid() {
+    }
+
+    public Grid(Grid other) {
+        copyFrom(other);
+    }
+
+    public int get(int index) {
+        return mNumbers[index];
+    }
+
+    // Fill in a number entered by the user.
+    public void set(int index, int number) {
+        assert (number >= 0 && number <= 9);
+        final int oldNumber = mNumbers[index];
+        mNumbers[index] = (byte) number;
+        mGivens.remove(index);
+        mUserEntries.set(index, number != 0);
+        updateMasks(index, oldNumber, number);
+    }
+
+    // Fill in a number that is part of the puzzle.
+    public void setGiven(int index, int number) {
+        assert (number >= 0 && number <= 9);
+        final int oldNumber = mNumbers[index];
+        mNumbers[index] = (byte) number;
+        mGivens.set(index, number != 0);
+        mUserEntries.remove(index);
+        updateMasks(index, oldNumber, number);
+    }
+
+    public boolean isGiven(int index) {
+        return mGivens.contains(index);
+    }
+
+    public boolean isUserEntry(int index) {
+        return mUserEntries.contains(index);
+    }
+
+    public int getMarks(int index) {
+        return mMarks[index];
+    }
+
+    public void setMarks(int index, int marks) {
+        mMarks[index] = (short) (marks & Solver.ALL_DIGITS);
+    }
+
+    // Remove the mark for |number| from |index|, returns true if it was marked.
+    public boolean removeMark(int index, int number) {
+        final int bit = 1 << number;
+        if ((mMarks[index] & bit) == 0) {
+            return false;
+        }
+        mMarks[index] &= ~bit;
+        return true;
+    }
+
+    public int getRowMask(int row) {
+        return mRowMasks[row];
+    }
+
+    public int getColumnMask(int col) {
+        return mColMasks[col];
+    }
+
+    public int getBoxMask(int box) {
+        return mBoxMasks[box];
+    }
+
+    // Returns true if the number at |index| is also used elsewhere in its row, column or box.
+    public boolean isConflict(int index) {
+        final int number = mNumbers[index];
+        if (number == 0) {
+            return false;
+        }
+        return mCounts[Solver.ROW_OF[index] * 10 + number] > 1
+                || mCounts[(9 + Solver.COL_OF[index]) * 10 + number] > 1
+                || mCounts[(18 + Solver.BOX_OF[index]) * 10 + number] > 1;
+    }
+
+    // The digits that are not used yet in the row, column and box of |index|, as a bitmask.
+    public int getCandidates(int index) {
+        return ~(mRowMasks[Solver.ROW_OF[index]] | mColMasks[Solver.COL_OF[index]]
+                | mBoxMasks[Solver.BOX_OF[index]]) & Solver.ALL_DIGITS;
+    }
+
+    // Replace all the numbers on the grid, either as givens or as user entries, and clear the
+    // pencil marks.
+    public void setNumbers(byte[] numbers, boolean given) {
+        System.arraycopy(numbers, 0, mNumbers, 0, 81);
+        Arrays.fill(mMarks, (short) 0);
+        mGivens.clear();
+        mUserEntries.clear();
+        for (int i = 0; i < 81; i++) {
+            if (numbers[i] != 0) {
+                (given ? mGivens : mUserEntries).add(i);
+            }
+        }
+        rebuildMasks();
+    }
+
+    public void copyNumbers(byte[] numbers) {
+        System.arraycopy(mNumbers, 0, numbers, 0, 81);
+    }
+
+    public void copyFrom(Grid other) {
+        System.arraycopy(other.mNumbers, 0, mNumbers, 0, 81);
+        System.arraycopy(other.mMarks, 0, mMarks, 0, 81);
+        System.arraycopy(other.mRowMasks, 0, mRowMasks, 0, 9);
+        System.arraycopy(other.mColMasks, 0, mColMasks, 0, 9);
+        System.arraycopy(other.mBoxMasks, 0, mBoxMasks, 0, 9);
+        System.arraycopy(other.mCounts, 0, mCounts, 0, mCounts.length);
+        mGivens.copyFrom(other.mGivens);
+        mUserEntries.copyFrom(other.mUserEntries);
+    }
+
+    public void clear() {
+        Arrays.fill(mNumbers, (byte) 0);
+        Arrays.fill(mMarks, (short) 0);
+        Arrays.fill(mRowMasks, 0);
+        Arrays.fill(mColMasks, 0);
+        Arrays.fill(mBoxMasks, 0);
+        Arrays.fill(mCounts, (byte) 0);
+        mGivens.clear();
+        mUserEntries.clear();
+    }
+
+    // Write the grid in the packed format into |out|, which must hold PACKED_SIZE bytes.
+    public void pack(byte[] out) {
+        out[0] = PACKED_VERSION;
+        packNumbers(mNumbers, out, 1);
+        mGivens.toBytes(out, 1 + PACKED_NUMBERS_SIZE);
+        Arrays.fill(out, PACKED_MARKS_OFFSET, PACKED_SIZE, (byte) 0);
+        for (int i = 0; i < 81; i++) {
+            packMarks(out, i, mMarks[i]);
+        }
+    }
+
+    // Update only |cells| in |out|, which already holds this grid in the packed format.
+    public void packCells(byte[] out, CellSet cells) {
+        for (int i = cells.nextSetBit(0); i >= 0; i = cells.nextSetBit(i + 1)) {
+            final int numberOffset = 1 + i / 2;
+            final int shift = (i & 1) * 4;
+            out[numberOffset] = (byte) ((out[numberOffset] & ~(0xF << shift)) | (mNumbers[i] << shift));
+
+            final int givenOffset = 1 + PACKED_NUMBERS_SIZE + i / 8;
+            final int givenBit = 1 << (i % 8);
+            if (mGivens.contains(i)) {
+                out[givenOffset] |= givenBit;
+            } else {
+                out[givenOffset] &= ~givenBit;
+            }
+
+            packMarks(out, i, mMarks[i]);
+        }
+    }
+
+    // Read a grid written by pack().  Returns false and leaves the grid untouched if |in| is not
+    // a valid packed grid.
+    public boolean unpack(byte[] in) {
+        if (in == null || in.length < 1) {
+            return false;
+        }
+
+        final boolean hasMarks = in[0] == PACKED_VERSION;
+        if (!hasMarks && in[0] != PACKED_VERSION_NO_MARKS) {
+            return false;
+        }
+        if (in.length < (hasMarks ? PACKED_SIZE : PACKED_SIZE_NO_MARKS)) {
+            return false;
+        }
+
+        for (int i = 0; i < 81; i++) {
+            if (unpackNumber(in, 1, i) > 9) {
+                return false;
+            }
+        }
+
+        unpackNumbers(in, 1, mNumbers);
+        mGivens.fromBytes(in, 1 + PACKED_NUMBERS_SIZE);
+        mUserEntries.clear();
+        for (int i = 0; i < 81; i++) {
+            if (mNumbers[i] == 0) {
+                mGivens.remove(i);
+            } else if (!mGivens.contains(i)) {
+                mUserEntries.add(i);
+            }
+            mMarks[i] = hasMarks ? (short) unpackMarks(in, i) : 0;
+        }
+        rebuildMasks();
+
+        return true;
+    }
+
+    // Returns true if |in| is a packed grid in the current version, which packCells() can patch.
+    public static boolean isCurrentPackedVersion(byte[] in) {
+        return in != null && in.length >= PACKED_SIZE && in[0] == PACKED_VERSION;
+    }
+
+    // Write the 9 marks of |index| to the marks bitmap, digit n at bit index * 9 + n - 1.
+    private static void packMarks(byte[] out, int index, int marks) {
+        final int firstBit = index * 9;
+        for (int digit = 1; digit <= 9; digit++) {
+            final int bit = firstBit + digit - 1;
+            final int offset = PACKED_MARKS_OFFSET + bit / 8;
+            if ((marks & (1 << digit)) != 0) {
+                out[offset] |= 1 << (bit % 8);
+            } else {
+                out[offset] &= ~(1 << (bit % 8));
+            }
+        }
+    }
+
+    private static int unpackMarks(byte[] in, int index) {
+        final int firstBit = index * 9;
+        int marks = 0;
+        for (int digit = 1; digit <= 9; digit++) {
+            final int bit = firstBit + digit - 1;
+            if ((in[PACKED_MARKS_OFFSET + bit / 8] & (1 << (bit % 8))) != 0) {
+                marks |= 1 << digit;
+            }
+        }
+        return marks;
+    }
+
+    // Write 81 numbers as 4 bits each into 41 bytes, two cells per byte with the even cell in the
+    // low nibble.
+    public static void packNumbers(byte[] numbers, byte[] out, int offset) {
+        for (int i = 0; i < 81; i += 2) {
+            final int low = numbers[i];
+            final int high = i + 1 < 81 ? numbers[i + 1] : 0;
+            out[offset + i / 2] = (byte) (low | (high << 4));
+        }
+    }
+
+    public static void unpackNumbers(byte[] in, int offset, byte[] numbers) {
+        for (int i = 0; i < 81; i++) {
+            numbers[i] = (byte) unpackNumber(in, offset, i);
+        }
+    }
+
+    static int unpackNumber(byte[] in, int offset, int index) {
+        return (in[offset + index / 2] >> ((index & 1) * 4)) & 0xF;
+    }
+
+    // Direct access to the numbers for the solver and generator, which only read them.
+    byte[] numbers() {
+        return mNumbers;
+    }
+
+    private void updateMasks(int index, int oldNumber, int newNumber) {
+        if (oldNumber == newNumber) {
+            return;
+        }
+
+        final int row = Solver.ROW_OF[index];
+        final int col = Solver.COL_OF[index];
+        final int box = Solver.BOX_OF[index];
+
+        // The counts tell us when the last use of a digit leaves a unit, so nothing is rescanned.
+        if (oldNumber != 0) {
+            final int bit = 1 << oldNumber;
+            if (--mCounts[row * 10 + oldNumber] == 0) {
+                mRowMasks[row] &= ~bit;
+            }
+            if (--mCounts[(9 + col) * 10 + oldNumber] == 0) {
+                mColMasks[col] &= ~bit;
+            }
+            if (--mCounts[(18 + box) * 10 + oldNumber] == 0) {
+                mBoxMasks[box] &= ~bit;
+            }
+        }
+
+        if (newNumber != 0) {
+            final int bit = 1 << newNumber;
+            mCounts[row * 10 + newNumber] += 1;
+            mCounts[(9 + col) * 10 + newNumber] += 1;
+            mCounts[(18 + box) * 10 + newNumber] += 1;
+            mRowMasks[row] |= bit;
+            mColMasks[col] |= bit;
+            mBoxMasks[box] |= bit;
+        }
+    }
+
+    private void rebuildMasks() {
+        Arrays.fill(mRowMasks, 0);
+        Arrays.fill(mColMasks, 0);
+        Arrays.fill(mBoxMasks, 0);
+        Arrays.fill(mCounts, (byte) 0);
+        for (int i = 0; i < 81; i++) {
+            final int number = mNumbers[i];
+            if (number != 0) {
+                mRowMasks[Solver.ROW_OF[i]] |= 1 << number;
+                mColMasks[Solver.COL_OF[i]] |= 1 << number;
+                mBoxMasks[Solver.BOX_OF[i]] |= 1 << number;
+                mCounts[Solver.ROW_OF[i] * 10 + number] += 1;
+                mCounts[(9 + Solver.COL_OF[i]) * 10 + number] += 1;
+                mCounts[(18 + Solver.BOX_OF[i]) * 10 + number] += 1;
+            }
+        }
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof Grid)) {
+            return false;
+        }
+        Grid other = (Grid) o;
+        return Arrays.equals(mNumbers, other.mNumbers)
+                && Arrays.equals(mMarks, other.mMarks)
+                && mGivens.equals(other.mGivens)
+                && mUserEntries.equals(other.mUserEntries);
+    }
+
+    @Override
+    public int hashCode() {
+        return ((Arrays.hashCode(mNumbers) * 31 + Arrays.hashCode(mMarks)) * 31 + mGivens.hashCode()) * 31
+                + mUserEntries.hashCode();
+    }
+
+}
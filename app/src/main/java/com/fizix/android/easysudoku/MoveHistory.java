@@ -0,0 +1,146 @@
+package com.fizix.android.easysudoku;
+
+
+// The undo and redo history of a board, kept as packed int moves in a preallocated ring buffer so
+// recording a move never allocates.  A move changes one cell: its number from one value to another
+// and its pencil marks by an xor mask, so the same move can be applied in both directions.  Moves
+// made by one user action form a group that is undone and redone as a whole.  When the ring is full
+// the oldest group is dropped.
+public final class MoveHistory {
+
+    // The number of moves we keep, 8 KB worth of ints.
+    public static final int CAPACITY = 2048;
+
+    // Move layout: bits 0-6 cell, 7-10 old number, 11-14 new number, 15-23 the marks that flipped
+    // (digit n at bit 15 + n - 1), bit 24 set if the move belongs to the same group as the move
+    // before it.
+    private static final int CELL_MASK = 0x7F;
+    private static final int OLD_SHIFT = 7;
+    private static final int NEW_SHIFT = 11;
+    private static final int MARKS_SHIFT = 15;
+    private static final int CONTINUES_GROUP = 1 << 24;
+
+    private final int[] mMoves = new int[CAPACITY];
+
+    // Positions in the ring, counted since the history was cleared.  Moves from mFirst to mCurrent
+    // can be undone, moves from mCurrent to mLast can be redone.
+    private int mFirst;
+    private int mCurrent;
+    private int mLast;
+
+    // Set while moves are being recorded as one group.
+    private boolean mGroupOpen;
+
+    // Where the undo or redo of the current group is.
+    private boolean mUndoDone;
+    private boolean mRedoStarted;
+
+    public static int pack(int index, int oldNumber, int newNumber, int flippedMarks) {
+        assert (index >= 0 && index < 81);
+        return index | (oldNumber << OLD_SHIFT) | (newNumber << NEW_SHIFT)
+                | (((flippedMarks & Solver.ALL_DIGITS) >> 1) << MARKS_SHIFT);
+    }
+
+    public static int getIndex(int move) {
+        return move & CELL_MASK;
+    }
+
+    public static int getOldNumber(int move) {
+        return (move >> OLD_SHIFT) & 0xF;
+    }
+
+    public static int getNewNumber(int move) {
+        return (move >> NEW_SHIFT) & 0xF;
+    }
+
+    // The marks that flipped, as a digit bitmask.
+    public static int getFlippedMarks(int move) {
+        return ((move >> MARKS_SHIFT) & 0x1FF) << 1;
+    }
+
+    // Start a new group, the next move recorded will not continue the last one.
+    public void endGroup() {
+        mGroupOpen = false;
+    }
+
+    public void record(int move) {
+        if (mGroupOpen) {
+            move |= CONTINUES_GROUP;
+        }
+        mGroupOpen = true;
+
+        mMoves[mCurrent % CAPACITY] = move;
+        mCurrent += 1;
+        mLast = mCurrent;
+
+        // Drop the oldest group if the ring overflowed.
+        if (mCurrent - mFirst > CAPACITY) {
+            mFirst = mCurrent - CAPACITY;
+            while (mFirst < mCurrent && (mMoves[mFirst % CAPACITY] & CONTINUES_GROUP) != 0) {
+                mFirst += 1;
+            }
+        }
+    }
+
+    public boolean canUndo() {
+        return mCurrent > mFirst;
+    }
+
+    public boolean canRedo() {
+        return mLast > mCurrent;
+    }
+
+    // Start undoing or redoing a group, this also ends the group being recorded.
+    public void startUndo() {
+        mUndoDone = false;
+        mGroupOpen = false;
+    }
+
+    public void startRedo() {
+        mRedoStarted = false;
+        mGroupOpen = false;
+    }
+
+    // Returns the next move to undo, walking back through the last group, or -1 when the group is
+    // done.  Call startUndo() first.
+    public int nextUndo() {
+        if (mCurrent <= mFirst || mUndoDone) {
+            return -1;
+        }
+
+        mCurrent -= 1;
+        final int move = mMoves[mCurrent % CAPACITY];
+        mUndoDone = (move & CONTINUES_GROUP) == 0;
+        return move & ~CONTINUES_GROUP;
+    }
+
+    // Returns the next move to redo, walking forward through the next group, or -1 when the group
+    // is done.  Call startRedo() first.
+    public int nextRedo() {
+        if (mCurrent >= mLast) {
+            return -1;
+        }
+
+        final int move = mMoves[mCurrent % CAPACITY];
+        if (mRedoStarted && (move & CONTINUES_GROUP) == 0) {
+            return -1;
+        }
+
+        mRedoStarted = true;
+        mCurrent += 1;
+        return move & ~CONTINUES_GROUP;
+    }
+
+    public void clear() {
+        mFirst = 0;
+        mCurrent = 0;
+        mLast = 0;
+        mGroupOpen = false;
+    }
+
+    // The number of moves that can be undone.
+    public int size() {
+        return mCurrent - mFirst;
+    }
+
+}
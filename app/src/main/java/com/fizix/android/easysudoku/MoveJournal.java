@@ -0,0 +1,379 @@
+package com.fizix.android.easysudoku;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+
+// An append-only file of the changes made to a board since it was last saved to the database, so
+// no moves are lost if the process is killed.  The file starts with a header record, every changed
+// cell is appended as a 4 byte record of its new number and marks, and changes to the whole board
+// as a snapshot record holding the packed grid and the seed of the puzzle.  Records hold values rather than changes, so
+// replaying one that the database already has is harmless.  The board is rebuilt by replaying the
+// journal on top of the saved state, and the journal is cut back to what came after a save once
+// that save is written.  Appends go to the page cache without a sync, which is enough to survive
+// the process being killed, and are the only file work done on the thread that makes the moves.
+// Cutting the journal back writes a new file and renames it over the old one, so a kill leaves one
+// or the other, and copies the records without holding the lock so appends do not wait for it.
+public class MoveJournal {
+
+    private static final String LOG_TAG = MoveJournal.class.getSimpleName();
+
+    // Once the journal is this big, the board should be saved so it can be compacted.
+    public static final int COMPACT_THRESHOLD_BYTES = 1024;
+
+    // The first record of every journal, "JRN" and the version of the records.  A journal that
+    // does not start with it was written in an older format and is dropped.
+    private static final int HEADER_RECORD = 0x4A524E02;
+
+    // A record with this bit set is a snapshot, followed by as many bytes as the other bits say:
+    // Grid.PACKED_SIZE bytes of the packed grid, then a byte that is 1 if the puzzle has a seed and
+    // the 8 bytes of the seed.  Snapshots written before seeds were kept end after the grid.
+    private static final int SNAPSHOT_RECORD = 0x80000000;
+
+    // Any other record is a cell: its index in bits 0-6, its number in bits 7-10 and its marks in
+    // bits 11-20.
+    private static final int CELL_RECORD_BITS = 21;
+
+    private static final int RECORD_SIZE = 4;
+    private static final int HEADER_SIZE = RECORD_SIZE;
+    private static final int SEED_SIZE = 1 + 8;
+    private static final int SNAPSHOT_SIZE = RECORD_SIZE + Grid.PACKED_SIZE + SEED_SIZE;
+
+    private final File mFile;
+    private RandomAccessFile mRandomAccessFile;
+    private FileChannel mChannel;
+
+    // Record bytes that were compacted away since the journal was opened.  Positions handed out by
+    // getPosition() count from the first record, so they stay valid across compactions.
+    private long mCompactedBytes;
+
+    // The size of the file with its header, kept here so checking it does not need a system call.
+    private long mSize;
+
+    // Whether the last replay() went through a snapshot, and the seed of the last one.
+    private boolean mReplayedSnapshot;
+    private boolean mReplayedHasSeed;
+    private long mReplayedSeed;
+
+    // Preallocated buffers, so appending a cell never allocates.
+    private final ByteBuffer mHeaderBuffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer mCellBuffer = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final ByteBuffer mSnapshotBuffer = ByteBuffer.allocate(SNAPSHOT_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final byte[] mPacked = new byte[Grid.PACKED_SIZE];
+
+    public MoveJournal(File file) {
+        mFile = file;
+    }
+
+    public synchronized boolean open() {
+        // Left over if the process was killed while the journal was being rewritten, in which case
+        // the journal itself is still the old one.
+        final File temp = getTempFile();
+        if (temp.exists() && !temp.delete()) {
+            Log.w(LOG_TAG, "Could not delete " + temp);
+        }
+
+        try {
+            mRandomAccessFile = new RandomAccessFile(mFile, "rw");
+            mChannel = mRandomAccessFile.getChannel();
+            mSize = mChannel.size();
+
+            if (!hasHeader()) {
+                if (mSize > 0) {
+                    Log.w(LOG_TAG, "Dropping journal " + mFile + " in an old format.");
+                }
+                mChannel.truncate(0);
+                mChannel.position(0);
+                mSize = 0;
+                writeHeader(mChannel);
+                mSize = HEADER_SIZE;
+            }
+
+            mChannel.position(mSize);
+            return true;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not open journal " + mFile, e);
+            close();
+            return false;
+        }
+    }
+
+    public synchronized void close() {
+        try {
+            if (mRandomAccessFile != null) {
+                mRandomAccessFile.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not close journal " + mFile, e);
+        }
+        mRandomAccessFile = null;
+        mChannel = null;
+        mSize = 0;
+    }
+
+    // Record that cell |index| now holds |number| and |marks|.
+    public synchronized void appendCell(int index, int number, int marks) {
+        assert (index >= 0 && index < 81 && number >= 0 && number <= 9);
+        mCellBuffer.clear();
+        mCellBuffer.putInt(index | number << 7 | (marks & Solver.ALL_DIGITS) << 11);
+        mCellBuffer.flip();
+        write(mCellBuffer);
+    }
+
+    // Record that the whole board was replaced with |grid|, a puzzle generated from |seed| if
+    // |hasSeed| is set.  Replaying starts over from it, and what came before is dropped once a save
+    // that has the new board is written.
+    public synchronized void appendSnapshot(Grid grid, boolean hasSeed, long seed) {
+        grid.pack(mPacked);
+        mSnapshotBuffer.clear();
+        mSnapshotBuffer.putInt(SNAPSHOT_RECORD | (Grid.PACKED_SIZE + SEED_SIZE));
+        mSnapshotBuffer.put(mPacked);
+        mSnapshotBuffer.put((byte) (hasSeed ? 1 : 0));
+        mSnapshotBuffer.putLong(hasSeed ? seed : 0);
+        mSnapshotBuffer.flip();
+        write(mSnapshotBuffer);
+    }
+
+    private void write(ByteBuffer buffer) {
+        if (mChannel == null) {
+            return;
+        }
+
+        try {
+            while (buffer.hasRemaining()) {
+                mSize += mChannel.write(buffer);
+            }
+        } catch (IOException e) {
+            // Stop journaling, the next save to the database still has everything.
+            Log.e(LOG_TAG, "Could not write to journal " + mFile, e);
+            close();
+        }
+    }
+
+    // The position after the last record, to pass to compact() once a save that includes
+    // everything up to here is written.
+    public synchronized long getPosition() {
+        return mCompactedBytes + mSize - HEADER_SIZE;
+    }
+
+    public synchronized boolean needsCompaction() {
+        return mSize >= COMPACT_THRESHOLD_BYTES;
+    }
+
+    // Drop every record before |position|, which the database now holds.  The records after it
+    // are written to a temporary file that is renamed over the journal, so a kill at any point
+    // leaves either the old journal or the new one, and the records of either can be replayed.
+    // Stops journaling if the rename works but the new journal can not be used.  Only called from
+    // the thread that saves the board.
+    public void compact(long position) {
+        final FileChannel channel;
+        final long start;
+        final long end;
+        synchronized (this) {
+            if (mChannel == null || position <= mCompactedBytes) {
+                return;
+            }
+            channel = mChannel;
+            start = HEADER_SIZE + Math.min(position - mCompactedBytes, mSize - HEADER_SIZE);
+            end = mSize;
+        }
+
+        // Appends only add records after |end|, so the ones before it can be copied without the
+        // lock.  Only the records appended meanwhile are copied while holding it.
+        final File temp = getTempFile();
+        RandomAccessFile randomAccessFile = null;
+        try {
+            randomAccessFile = new RandomAccessFile(temp, "rw");
+            final FileChannel tempChannel = randomAccessFile.getChannel();
+            tempChannel.truncate(0);
+            writeHeader(tempChannel);
+            copy(channel, start, end, tempChannel);
+
+            synchronized (this) {
+                if (mChannel != channel || mSize < end) {
+                    throw new IOException("Journal " + mFile + " changed while compacting");
+                }
+                copy(channel, end, mSize, tempChannel);
+
+                if (!temp.renameTo(mFile)) {
+                    throw new IOException("Could not rename " + temp + " to " + mFile);
+                }
+
+                // The new file is the journal now.
+                final RandomAccessFile old = mRandomAccessFile;
+                mRandomAccessFile = randomAccessFile;
+                mChannel = tempChannel;
+                randomAccessFile = null;
+                mCompactedBytes += start - HEADER_SIZE;
+                closeQuietly(old);
+
+                try {
+                    mSize = mChannel.size();
+                    mChannel.position(mSize);
+                } catch (IOException e) {
+                    Log.e(LOG_TAG, "Could not use compacted journal " + mFile, e);
+                    close();
+                }
+            }
+        } catch (IOException e) {
+            // The journal is still the old one and has every record.
+            Log.e(LOG_TAG, "Could not compact journal " + mFile, e);
+        } finally {
+            if (randomAccessFile != null) {
+                closeQuietly(randomAccessFile);
+                temp.delete();
+            }
+        }
+    }
+
+    // Copy the bytes from |start| to |end| of |from| to the end of |to|.
+    private static void copy(FileChannel from, long start, long end, FileChannel to) throws IOException {
+        while (start < end) {
+            final long copied = from.transferTo(start, end - start, to);
+            if (copied <= 0) {
+                throw new IOException("Journal ended early");
+            }
+            start += copied;
+        }
+    }
+
+    private void closeQuietly(RandomAccessFile randomAccessFile) {
+        try {
+            randomAccessFile.close();
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not close a file of journal " + mFile, e);
+        }
+    }
+
+    private boolean hasHeader() throws IOException {
+        if (mSize < HEADER_SIZE) {
+            return false;
+        }
+        mHeaderBuffer.clear();
+        readFully(mHeaderBuffer, 0);
+        return mHeaderBuffer.remaining() == HEADER_SIZE && mHeaderBuffer.getInt() == HEADER_RECORD;
+    }
+
+    // Only done when opening or compacting the journal, so it can allocate its buffer.
+    private static void writeHeader(FileChannel channel) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(HEADER_RECORD);
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    private File getTempFile() {
+        return new File(mFile.getPath() + ".tmp");
+    }
+
+    // Apply every record in the journal to |grid|.  A record cut short by the process being
+    // killed mid write is dropped, along with anything after it.  Returns the number of records
+    // replayed.
+    public synchronized int replay(Grid grid) {
+        if (mChannel == null) {
+            return 0;
+        }
+
+        try {
+            final long size = mChannel.size();
+            final ByteBuffer buffer = ByteBuffer.allocate((int) size).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(buffer, 0);
+            buffer.position(HEADER_SIZE);
+
+            mReplayedSnapshot = false;
+            int records = 0;
+            while (buffer.remaining() >= RECORD_SIZE) {
+                final int start = buffer.position();
+                final int record = buffer.getInt();
+
+                if ((record & SNAPSHOT_RECORD) != 0) {
+                    final int length = record & ~SNAPSHOT_RECORD;
+                    if ((length != Grid.PACKED_SIZE && length != Grid.PACKED_SIZE + SEED_SIZE)
+                            || buffer.remaining() < length) {
+                        buffer.position(start);
+                        break;
+                    }
+                    buffer.get(mPacked);
+                    if (!grid.unpack(mPacked)) {
+                        buffer.position(start);
+                        break;
+                    }
+
+                    mReplayedSnapshot = true;
+                    mReplayedHasSeed = false;
+                    mReplayedSeed = 0;
+                    if (length > Grid.PACKED_SIZE) {
+                        mReplayedHasSeed = buffer.get() != 0;
+                        mReplayedSeed = buffer.getLong();
+                    }
+                } else if (!applyCell(grid, record)) {
+                    buffer.position(start);
+                    break;
+                }
+                records += 1;
+            }
+
+            // Cut off anything we could not read, so new records follow the last good one.
+            if (buffer.position() < size) {
+                Log.w(LOG_TAG, "Dropping " + (size - buffer.position()) + " bytes at the end of " + mFile);
+                mChannel.truncate(buffer.position());
+            }
+            mChannel.position(buffer.position());
+            mSize = buffer.position();
+
+            return records;
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not replay journal " + mFile, e);
+            close();
+            return 0;
+        }
+    }
+
+    // Whether the last call to replay() went through a snapshot.  If it did, the board it rebuilt
+    // has the seed of the last snapshot instead of the one that was saved.
+    public synchronized boolean hasReplayedSnapshot() {
+        return mReplayedSnapshot;
+    }
+
+    public synchronized boolean hasReplayedSeed() {
+        return mReplayedHasSeed;
+    }
+
+    public synchronized long getReplayedSeed() {
+        return mReplayedSeed;
+    }
+
+    // Fill |buffer| from the journal starting at |offset| and flip it for reading.
+    private void readFully(ByteBuffer buffer, long offset) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (mChannel.read(buffer, offset + buffer.position()) < 0) {
+                break;
+            }
+        }
+        buffer.flip();
+    }
+
+    // Set the cell of |record| to its number and marks.  Returns false if it is not a valid cell.
+    private static boolean applyCell(Grid grid, int record) {
+        final int index = record & 0x7F;
+        final int number = (record >> 7) & 0xF;
+        if ((record >>> CELL_RECORD_BITS) != 0 || index >= 81 || number > 9) {
+            return false;
+        }
+
+        if (grid.get(index) != number) {
+            grid.set(index, number);
+        }
+        grid.setMarks(index, record >> 11);
+        return true;
+    }
+
+}
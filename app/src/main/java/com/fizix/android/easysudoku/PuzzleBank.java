@@ -0,0 +1,224 @@
+package com.fizix.android.easysudoku;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.fizix.android.easysudoku.data.Contract.Puzzles;
+import com.fizix.android.easysudoku.data.DbHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+
+// A read-only file of curated puzzles that is memory mapped, so opening it costs next to nothing
+// and loading a puzzle is a few reads from the page cache without a database query or an
+// allocation.  The file is a PuzzlePack holding a puzzle record followed by its solution record
+// for every puzzle, sorted by difficulty.  A segment table after the pack header gives the first
+// puzzle and the number of puzzles of every difficulty:
+//   16 + difficulty * 8  first puzzle, int
+//   20 + difficulty * 8  puzzle count, int
+public class PuzzleBank {
+
+    private static final String LOG_TAG = PuzzleBank.class.getSimpleName();
+
+    // The number of difficulties with a segment, DIFFICULTY_NONE to DIFFICULTY_HARD.
+    private static final int SEGMENT_COUNT = 4;
+
+    public static final int HEADER_SIZE = PuzzlePack.HEADER_SIZE + SEGMENT_COUNT * 8;
+
+    // Every puzzle takes a puzzle and a solution record.
+    private static final int ENTRY_SIZE = 2 * PuzzlePack.RECORD_SIZE;
+
+    private final MappedByteBuffer mBuffer;
+    private final int mHeaderSize;
+    private final int mCount;
+
+    private final int[] mFirst = new int[SEGMENT_COUNT];
+    private final int[] mCounts = new int[SEGMENT_COUNT];
+
+    private PuzzleBank(MappedByteBuffer buffer) {
+        mBuffer = buffer;
+        mHeaderSize = buffer.getInt(PuzzlePack.HEADER_SIZE_OFFSET);
+        mCount = buffer.getInt(PuzzlePack.RECORD_COUNT_OFFSET) / 2;
+
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            mFirst[i] = buffer.getInt(PuzzlePack.HEADER_SIZE + i * 8);
+            mCounts[i] = buffer.getInt(PuzzlePack.HEADER_SIZE + i * 8 + 4);
+        }
+    }
+
+    // Map the bank in |file|.  Returns null if there is no bank or it is not valid.
+    public static PuzzleBank open(File file) {
+        if (!file.exists()) {
+            return null;
+        }
+
+        try {
+            final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+            try {
+                // The mapping stays valid after the file is closed.
+                final FileChannel channel = randomAccessFile.getChannel();
+                final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+                if (!isValid(buffer)) {
+                    Log.e(LOG_TAG, "Not a valid puzzle bank " + file);
+                    return null;
+                }
+                return new PuzzleBank(buffer);
+            } finally {
+                randomAccessFile.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Could not open puzzle bank " + file, e);
+            return null;
+        }
+    }
+
+    private static boolean isValid(ByteBuffer buffer) {
+        if (!PuzzlePack.isValidHeader(buffer) || buffer.limit() < HEADER_SIZE) {
+            return false;
+        }
+
+        final int headerSize = buffer.getInt(PuzzlePack.HEADER_SIZE_OFFSET);
+        final int records = buffer.getInt(PuzzlePack.RECORD_COUNT_OFFSET);
+        if (headerSize < HEADER_SIZE || records < 0 || records % 2 != 0
+                || (long) headerSize + (long) records * PuzzlePack.RECORD_SIZE > buffer.limit()) {
+            return false;
+        }
+
+        for (int i = 0; i < SEGMENT_COUNT; i++) {
+            final long first = buffer.getInt(PuzzlePack.HEADER_SIZE + i * 8);
+            final long count = buffer.getInt(PuzzlePack.HEADER_SIZE + i * 8 + 4);
+            if (first < 0 || count < 0 || first + count > records / 2) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // The number of puzzles in the bank.
+    public int getCount() {
+        return mCount;
+    }
+
+    // The number of puzzles of |difficulty|.
+    public int getCount(int difficulty) {
+        return difficulty >= 0 && difficulty < SEGMENT_COUNT ? mCounts[difficulty] : 0;
+    }
+
+    // The index of the first puzzle of |difficulty|.
+    public int getFirst(int difficulty) {
+        return difficulty >= 0 && difficulty < SEGMENT_COUNT ? mFirst[difficulty] : 0;
+    }
+
+    // Copy puzzle |index| and its solution, 81 numbers each, into |puzzle| and |solution|.
+    // Returns false if there is no such puzzle.  Safe to call from any thread.
+    public boolean load(int index, byte[] puzzle, byte[] solution) {
+        if (index < 0 || index >= mCount) {
+            return false;
+        }
+
+        final int offset = mHeaderSize + index * ENTRY_SIZE;
+        unpack(offset, puzzle);
+        unpack(offset + PuzzlePack.RECORD_SIZE, solution);
+        return true;
+    }
+
+    // Unpack the numbers of the record at |offset|, two cells per byte with the even cell in the
+    // low nibble.  The high nibble of the last byte is the record tag.
+    private void unpack(int offset, byte[] numbers) {
+        for (int i = 0; i < 81; i += 2) {
+            final int b = mBuffer.get(offset + i / 2);
+            numbers[i] = (byte) (b & 0xF);
+            if (i + 1 < 81) {
+                numbers[i + 1] = (byte) ((b >> 4) & 0xF);
+            }
+        }
+    }
+
+    // Write every puzzle in the puzzles table to a bank in |file|.  Returns the number of
+    // puzzles written.  Not meant for the UI thread.
+    public static int build(DbHelper dbHelper, File file) throws IOException {
+        final SQLiteDatabase db = dbHelper.getReadableDatabase();
+
+        final String[] columns = {Puzzles.COL_DIFFICULTY, Puzzles.COL_PUZZLE, Puzzles.COL_SOLUTION};
+        final String orderBy = Puzzles.COL_DIFFICULTY + ", " + Puzzles._ID;
+
+        final int[] first = new int[SEGMENT_COUNT];
+        final int[] counts = new int[SEGMENT_COUNT];
+        final byte[] record = new byte[PuzzlePack.RECORD_SIZE];
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * ENTRY_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel channel = randomAccessFile.getChannel();
+            channel.truncate(0);
+            channel.position(HEADER_SIZE);
+
+            int count = 0;
+            Cursor cursor = db.query(Puzzles.TABLE_NAME, columns, null, null, null, null, orderBy);
+            try {
+                while (cursor.moveToNext()) {
+                    final int difficulty = cursor.getInt(0);
+                    final byte[] puzzle = cursor.getBlob(1);
+                    final byte[] solution = cursor.getBlob(2);
+                    if (difficulty < 0 || difficulty >= SEGMENT_COUNT
+                            || puzzle.length != PuzzlePack.RECORD_SIZE || solution.length != PuzzlePack.RECORD_SIZE) {
+                        continue;
+                    }
+
+                    if (counts[difficulty] == 0) {
+                        first[difficulty] = count;
+                    }
+                    counts[difficulty] += 1;
+                    count += 1;
+
+                    if (buffer.remaining() < ENTRY_SIZE) {
+                        writeFully(channel, buffer);
+                    }
+                    putRecord(buffer, record, puzzle, PuzzlePack.KIND_PUZZLE, difficulty);
+                    putRecord(buffer, record, solution, PuzzlePack.KIND_SOLUTION, difficulty);
+                }
+            } finally {
+                cursor.close();
+            }
+            writeFully(channel, buffer);
+
+            PuzzlePack.writeHeader(buffer, HEADER_SIZE, count * 2);
+            for (int i = 0; i < SEGMENT_COUNT; i++) {
+                buffer.putInt(first[i]);
+                buffer.putInt(counts[i]);
+            }
+            channel.position(0);
+            writeFully(channel, buffer);
+
+            Log.d(LOG_TAG, "Built puzzle bank with " + count + " puzzles.");
+            return count;
+        } finally {
+            randomAccessFile.close();
+        }
+    }
+
+    private static void putRecord(ByteBuffer buffer, byte[] record, byte[] packed, int kind, int difficulty) {
+        System.arraycopy(packed, 0, record, 0, PuzzlePack.RECORD_SIZE);
+        PuzzlePack.setTag(record, 0, kind, difficulty);
+        buffer.put(record);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+}
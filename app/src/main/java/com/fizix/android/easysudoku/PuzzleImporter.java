@@ -0,0 +1,272 @@
+package com.fizix.android.easysudoku;
+
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteStatement;
+import android.util.Log;
+
+import com.fizix.android.easysudoku.data.DbHelper;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+
+// Imports puzzle collections into the puzzles table.  A collection is a text file with one puzzle
+// per line: 81 characters in row major order, 1 to 9 for a given and '0' or '.' for an empty cell.
+// Anything after the 81st character that is not a cell is ignored, so lines may carry a comment
+// or rating, and empty lines and lines starting with '#' are skipped.  The file is streamed in one
+// pass through a fixed buffer and every line is parsed in place, so memory stays the same whatever
+// the size of the file.  Every puzzle must have exactly one solution to be imported, and puzzles
+// that are already in the table under some symmetry are dropped by the unique fingerprint.  Rows
+// are inserted with one compiled statement and committed in batches.  Not meant for the UI thread.
+public class PuzzleImporter {
+
+    private static final String LOG_TAG = PuzzleImporter.class.getSimpleName();
+
+    // The number of rows inserted in a single transaction.
+    public static final int BATCH_SIZE = 1000;
+
+    // The most search nodes we spend on validating a single puzzle.
+    public static final long VALIDATION_NODE_LIMIT = 100000L;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    public interface ProgressListener {
+        // Called after every batch is committed and once more when the import is done.
+        void onImportProgress(long bytesRead, int linesRead, int imported, int rejected);
+    }
+
+    public static class Result {
+        public final int linesRead;
+        public final int imported;
+
+        // Lines that were not a puzzle at all.
+        public final int malformed;
+
+        // Puzzles with no solution, more than one, or too hard to tell.
+        public final int invalid;
+
+        // Puzzles that were imported before, maybe under a symmetry.
+        public final int duplicates;
+
+        public final long bytesRead;
+        public final long elapsedNanos;
+
+        Result(int linesRead, int imported, int malformed, int invalid, int duplicates,
+               long bytesRead, long elapsedNanos) {
+            this.linesRead = linesRead;
+            this.imported = imported;
+            this.malformed = malformed;
+            this.invalid = invalid;
+            this.duplicates = duplicates;
+            this.bytesRead = bytesRead;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public int getRejected() {
+            return malformed + invalid + duplicates;
+        }
+
+        public double getRowsPerSecond() {
+            return elapsedNanos == 0 ? 0.0 : imported * 1000000000.0 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d of %d lines imported in %.1f ms (%.1f rows/s), %d malformed, %d invalid, %d duplicates",
+                    imported, linesRead, elapsedNanos / 1000000.0, getRowsPerSecond(), malformed, invalid, duplicates);
+        }
+    }
+
+    private final DbHelper mDbHelper;
+
+    private final Solver mSolver = new Solver();
+    private final Rater mRater = new Rater();
+    private final Canonicalizer mCanonicalizer = new Canonicalizer();
+
+    // Preallocated buffers, so importing a line never allocates.
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+    private final byte[] mPuzzle = new byte[81];
+    private final byte[] mSolution = new byte[81];
+    private final byte[] mPackedPuzzle = new byte[Grid.PACKED_NUMBERS_SIZE];
+    private final byte[] mPackedSolution = new byte[Grid.PACKED_NUMBERS_SIZE];
+
+    // The state of the line being parsed.
+    private int mLineLength;
+    private boolean mLineMalformed;
+    private boolean mLineSkipped;
+
+    // Counts for the import in progress.
+    private int mLinesRead;
+    private int mImported;
+    private int mMalformed;
+    private int mInvalid;
+    private int mDuplicates;
+
+    public PuzzleImporter(DbHelper dbHelper) {
+        mDbHelper = dbHelper;
+    }
+
+    public Result importFile(File file, ProgressListener listener) throws IOException {
+        final InputStream in = new FileInputStream(file);
+        try {
+            return importStream(in, listener);
+        } finally {
+            in.close();
+        }
+    }
+
+    // Import every puzzle in |in|.  |listener| may be null.  Batches committed before an error
+    // stay in the database.
+    public synchronized Result importStream(InputStream in, ProgressListener listener) throws IOException {
+        final long startTime = System.nanoTime();
+
+        mLinesRead = 0;
+        mImported = 0;
+        mMalformed = 0;
+        mInvalid = 0;
+        mDuplicates = 0;
+        startLine();
+
+        final SQLiteDatabase db = mDbHelper.getWritableDatabase();
+        final SQLiteStatement statement = mDbHelper.getInsertPuzzleStatement();
+
+        long bytesRead = 0;
+        int batchCount = 0;
+
+        db.beginTransaction();
+        try {
+            int count;
+            while ((count = in.read(mBuffer)) != -1) {
+                for (int i = 0; i < count; i++) {
+                    final int c = mBuffer[i];
+                    if (c != '\n') {
+                        parseChar(c);
+                        continue;
+                    }
+
+                    if (endLine(statement)) {
+                        batchCount += 1;
+                    }
+                    startLine();
+
+                    if (batchCount >= BATCH_SIZE) {
+                        db.setTransactionSuccessful();
+                        db.endTransaction();
+                        db.beginTransaction();
+                        batchCount = 0;
+
+                        if (listener != null) {
+                            listener.onImportProgress(bytesRead + i + 1, mLinesRead, mImported, getRejected());
+                        }
+                    }
+                }
+                bytesRead += count;
+            }
+
+            // The last line may not end with a new line.
+            endLine(statement);
+
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+
+        if (listener != null) {
+            listener.onImportProgress(bytesRead, mLinesRead, mImported, getRejected());
+        }
+
+        final Result result = new Result(mLinesRead, mImported, mMalformed, mInvalid, mDuplicates,
+                bytesRead, System.nanoTime() - startTime);
+        Log.d(LOG_TAG, "Import done: " + result);
+        return result;
+    }
+
+    private int getRejected() {
+        return mMalformed + mInvalid + mDuplicates;
+    }
+
+    private void startLine() {
+        mLineLength = 0;
+        mLineMalformed = false;
+        mLineSkipped = false;
+    }
+
+    private void parseChar(int c) {
+        if (mLineSkipped || mLineMalformed) {
+            return;
+        }
+
+        int number = -1;
+        if (c >= '1' && c <= '9') {
+            number = c - '0';
+        } else if (c == '0' || c == '.') {
+            number = 0;
+        }
+
+        if (mLineLength == 81) {
+            // A cell right after the puzzle means the line is too long, anything else starts
+            // the rest of the line, which we ignore.
+            if (number != -1) {
+                mLineMalformed = true;
+            } else {
+                mLineSkipped = true;
+            }
+            return;
+        }
+
+        if (number == -1) {
+            // Comments and blank lines are not counted as puzzles.
+            if (mLineLength == 0 && (c == '#' || c == '\r' || c == ' ' || c == '\t')) {
+                mLineSkipped = c == '#';
+                return;
+            }
+            mLineMalformed = true;
+            return;
+        }
+
+        mPuzzle[mLineLength] = (byte) number;
+        mLineLength += 1;
+    }
+
+    // Validate and insert the line that just ended.  Returns true if a row was inserted.
+    private boolean endLine(SQLiteStatement statement) {
+        if (mLineLength == 0 && !mLineMalformed) {
+            return false;
+        }
+
+        mLinesRead += 1;
+
+        if (mLineMalformed || mLineLength != 81) {
+            mMalformed += 1;
+            return false;
+        }
+
+        mSolver.setNodeLimit(VALIDATION_NODE_LIMIT);
+        if (!mSolver.setPuzzle(mPuzzle) || mSolver.countSolutions(2) != 1 || mSolver.isAborted()) {
+            mInvalid += 1;
+            return false;
+        }
+        mSolver.getSolution(mSolution);
+
+        final int rating = mRater.rate(mPuzzle);
+
+        Grid.packNumbers(mPuzzle, mPackedPuzzle, 0);
+        Grid.packNumbers(mSolution, mPackedSolution, 0);
+
+        statement.bindLong(1, Generator.getDifficulty(rating));
+        statement.bindLong(2, rating);
+        statement.bindLong(3, mCanonicalizer.fingerprint(mPuzzle));
+        statement.bindBlob(4, mPackedPuzzle);
+        statement.bindBlob(5, mPackedSolution);
+        if (statement.executeInsert() == -1) {
+            mDuplicates += 1;
+            return false;
+        }
+
+        mImported += 1;
+        return true;
+    }
+
+}
@@ -0,0 +1,92 @@
+package com.fizix.android.easysudoku;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+
+// The binary format used to move puzzles between devices and machines.  A pack is a header
+// followed by fixed size records, each holding 81 numbers in the format of Grid.packNumbers().
+// The high nibble of the last byte of a record is not used by the numbers, so it holds the kind
+// of record in its low 2 bits and the difficulty in its high 2 bits.
+//
+// A puzzle record holds the givens, and may be followed by the records that belong to it: the
+// numbers the user filled in on a saved board, and the solution.
+//
+// Header, little endian:
+//   0  magic "ESPK"
+//   4  format version, short
+//   6  record size, short
+//   8  header size, int, records start here
+//   12 record count, int
+public final class PuzzlePack {
+
+    public static final int MAGIC = 0x4B505345;
+    public static final int VERSION = 1;
+
+    public static final int RECORD_SIZE = Grid.PACKED_NUMBERS_SIZE;
+    public static final int HEADER_SIZE = 16;
+
+    // Where the fields are in the header.
+    static final int VERSION_OFFSET = 4;
+    static final int RECORD_SIZE_OFFSET = 6;
+    static final int HEADER_SIZE_OFFSET = 8;
+    static final int RECORD_COUNT_OFFSET = 12;
+
+    public static final int KIND_PUZZLE = 0;
+    public static final int KIND_ENTRIES = 1;
+    public static final int KIND_SOLUTION = 2;
+
+    private static final int TAG_OFFSET = RECORD_SIZE - 1;
+
+    private PuzzlePack() {
+    }
+
+    // Write the header for a pack with |recordCount| records into |buffer| at its position.
+    public static void writeHeader(ByteBuffer buffer, int headerSize, int recordCount) {
+        final ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putInt(MAGIC);
+        buffer.putShort((short) VERSION);
+        buffer.putShort((short) RECORD_SIZE);
+        buffer.putInt(headerSize);
+        buffer.putInt(recordCount);
+        buffer.order(order);
+    }
+
+    // Returns true if |buffer| starts with the header of a pack this version can read.
+    public static boolean isValidHeader(ByteBuffer buffer) {
+        if (buffer.limit() < HEADER_SIZE) {
+            return false;
+        }
+
+        final ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        final boolean valid = buffer.getInt(0) == MAGIC
+                && buffer.getShort(VERSION_OFFSET) == VERSION
+                && buffer.getShort(RECORD_SIZE_OFFSET) == RECORD_SIZE
+                && buffer.getInt(HEADER_SIZE_OFFSET) >= HEADER_SIZE;
+        buffer.order(order);
+        return valid;
+    }
+
+    // Pack 81 |numbers| into a record at |offset| in |out|.
+    public static void packRecord(byte[] numbers, int kind, int difficulty, byte[] out, int offset) {
+        Grid.packNumbers(numbers, out, offset);
+        setTag(out, offset, kind, difficulty);
+    }
+
+    // Set the kind and difficulty of a record that already holds its numbers.
+    public static void setTag(byte[] record, int offset, int kind, int difficulty) {
+        final int tag = (kind & 0x3) | ((difficulty & 0x3) << 2);
+        record[offset + TAG_OFFSET] = (byte) ((record[offset + TAG_OFFSET] & 0x0F) | (tag << 4));
+    }
+
+    public static int getKind(byte[] record, int offset) {
+        return (record[offset + TAG_OFFSET] >> 4) & 0x3;
+    }
+
+    public static int getDifficulty(byte[] record, int offset) {
+        return (record[offset + TAG_OFFSET] >> 6) & 0x3;
+    }
+
+}
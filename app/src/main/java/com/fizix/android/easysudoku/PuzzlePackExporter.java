@@ -0,0 +1,234 @@
+package com.fizix.android.easysudoku;
+
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.util.Log;
+
+import com.fizix.android.easysudoku.data.Contract.Boards;
+import com.fizix.android.easysudoku.data.Contract.Puzzles;
+import com.fizix.android.easysudoku.data.Contract.QueuedPuzzles;
+import com.fizix.android.easysudoku.data.DbHelper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+
+// Writes everything in the database to a PuzzlePack: the saved boards with the numbers the user
+// filled in and their solutions, the queued puzzles and the imported puzzles with their
+// solutions.  Rows are read through cursors and records go out through a fixed buffer to a
+// FileChannel, so the pack is never held in memory.  The record count in the header is filled in
+// once everything is written.  Not meant for the UI thread.
+public class PuzzlePackExporter {
+
+    private static final String LOG_TAG = PuzzlePackExporter.class.getSimpleName();
+
+    // The number of records we buffer before writing them out.
+    private static final int BUFFER_RECORDS = 1024;
+
+    public static class Result {
+        public final int boards;
+        public final int puzzles;
+        public final int records;
+        public final long bytesWritten;
+        public final long elapsedNanos;
+
+        Result(int boards, int puzzles, int records, long bytesWritten, long elapsedNanos) {
+            this.boards = boards;
+            this.puzzles = puzzles;
+            this.records = records;
+            this.bytesWritten = bytesWritten;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        public double getRecordsPerSecond() {
+            return elapsedNanos == 0 ? 0.0 : records * 1000000000.0 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d boards and %d puzzles in %d records (%d bytes) in %.1f ms (%.1f records/s)",
+                    boards, puzzles, records, bytesWritten, elapsedNanos / 1000000.0, getRecordsPerSecond());
+        }
+    }
+
+    private final DbHelper mDbHelper;
+
+    private final ByteBuffer mBuffer = ByteBuffer.allocateDirect(
+            PuzzlePack.HEADER_SIZE + BUFFER_RECORDS * PuzzlePack.RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+
+    // Preallocated scratch space, so exporting a row never allocates more than the cursor does.
+    private final Grid mGrid = new Grid();
+    private final Solver mSolver = new Solver();
+    private final byte[] mGivens = new byte[81];
+    private final byte[] mEntries = new byte[81];
+    private final byte[] mSolution = new byte[81];
+    private final byte[] mRecord = new byte[PuzzlePack.RECORD_SIZE];
+
+    private FileChannel mChannel;
+    private int mRecordCount;
+    private long mBytesWritten;
+
+    public PuzzlePackExporter(DbHelper dbHelper) {
+        mDbHelper = dbHelper;
+        mSolver.setNodeLimit(PuzzleImporter.VALIDATION_NODE_LIMIT);
+    }
+
+    // Write the pack to |file|, replacing whatever was there.
+    public synchronized Result export(File file) throws IOException {
+        final long startTime = System.nanoTime();
+
+        final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+        try {
+            mChannel = randomAccessFile.getChannel();
+            mChannel.truncate(0);
+            mRecordCount = 0;
+            mBytesWritten = 0;
+
+            // The record count is not known yet, it is filled in at the end.
+            mBuffer.clear();
+            PuzzlePack.writeHeader(mBuffer, PuzzlePack.HEADER_SIZE, 0);
+
+            final SQLiteDatabase db = mDbHelper.getReadableDatabase();
+            final int boards = exportBoards(db);
+            final int puzzles = exportQueuedPuzzles(db) + exportPuzzles(db);
+            flush();
+
+            final ByteBuffer count = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+            count.putInt(0, mRecordCount);
+            while (count.hasRemaining()) {
+                mChannel.write(count, PuzzlePack.RECORD_COUNT_OFFSET + count.position());
+            }
+
+            final Result result = new Result(boards, puzzles, mRecordCount, mBytesWritten,
+                    System.nanoTime() - startTime);
+            Log.d(LOG_TAG, "Export done: " + result);
+            return result;
+        } finally {
+            mChannel = null;
+            randomAccessFile.close();
+        }
+    }
+
+    // A saved board goes out as its givens, the numbers the user filled in and, if the givens
+    // have a single solution, the solution.
+    private int exportBoards(SQLiteDatabase db) throws IOException {
+        final String[] columns = {Boards.COL_DIFFICULTY, Boards.COL_CELLS};
+
+        int exported = 0;
+        Cursor cursor = db.query(Boards.TABLE_NAME, columns, null, null, null, null, Boards.COL_DIFFICULTY);
+        try {
+            while (cursor.moveToNext()) {
+                final int difficulty = cursor.getInt(0);
+                if (!mGrid.unpack(cursor.getBlob(1))) {
+                    continue;
+                }
+
+                for (int i = 0; i < 81; i++) {
+                    final int number = mGrid.get(i);
+                    final boolean given = mGrid.isGiven(i);
+                    mGivens[i] = (byte) (given ? number : 0);
+                    mEntries[i] = (byte) (given ? 0 : number);
+                }
+
+                writeRecord(mGivens, PuzzlePack.KIND_PUZZLE, difficulty);
+                writeRecord(mEntries, PuzzlePack.KIND_ENTRIES, difficulty);
+
+                mSolver.setPuzzle(mGivens);
+                if (mSolver.countSolutions(2) == 1 && !mSolver.isAborted()) {
+                    mSolver.getSolution(mSolution);
+                    writeRecord(mSolution, PuzzlePack.KIND_SOLUTION, difficulty);
+                }
+
+                exported += 1;
+            }
+        } finally {
+            cursor.close();
+        }
+        return exported;
+    }
+
+    private int exportQueuedPuzzles(SQLiteDatabase db) throws IOException {
+        final String[] columns = {
+                QueuedPuzzles.COL_DIFFICULTY,
+                QueuedPuzzles.COL_PUZZLE,
+                QueuedPuzzles.COL_SOLUTION
+        };
+
+        int exported = 0;
+        Cursor cursor = db.query(QueuedPuzzles.TABLE_NAME, columns, null, null, null, null, QueuedPuzzles._ID);
+        try {
+            while (cursor.moveToNext()) {
+                final int difficulty = cursor.getInt(0);
+                final byte[] puzzle = cursor.getBlob(1);
+                final byte[] solution = cursor.getBlob(2);
+                if (puzzle.length != 81 || solution.length != 81) {
+                    continue;
+                }
+
+                writeRecord(puzzle, PuzzlePack.KIND_PUZZLE, difficulty);
+                writeRecord(solution, PuzzlePack.KIND_SOLUTION, difficulty);
+                exported += 1;
+            }
+        } finally {
+            cursor.close();
+        }
+        return exported;
+    }
+
+    // Imported puzzles are stored packed already, so they only need their tags.
+    private int exportPuzzles(SQLiteDatabase db) throws IOException {
+        final String[] columns = {Puzzles.COL_DIFFICULTY, Puzzles.COL_PUZZLE, Puzzles.COL_SOLUTION};
+
+        int exported = 0;
+        Cursor cursor = db.query(Puzzles.TABLE_NAME, columns, null, null, null, null, Puzzles._ID);
+        try {
+            while (cursor.moveToNext()) {
+                final int difficulty = cursor.getInt(0);
+                final byte[] puzzle = cursor.getBlob(1);
+                final byte[] solution = cursor.getBlob(2);
+                if (puzzle.length != PuzzlePack.RECORD_SIZE || solution.length != PuzzlePack.RECORD_SIZE) {
+                    continue;
+                }
+
+                writePackedRecord(puzzle, PuzzlePack.KIND_PUZZLE, difficulty);
+                writePackedRecord(solution, PuzzlePack.KIND_SOLUTION, difficulty);
+                exported += 1;
+            }
+        } finally {
+            cursor.close();
+        }
+        return exported;
+    }
+
+    private void writeRecord(byte[] numbers, int kind, int difficulty) throws IOException {
+        PuzzlePack.packRecord(numbers, kind, difficulty, mRecord, 0);
+        putRecord(mRecord);
+    }
+
+    private void writePackedRecord(byte[] packed, int kind, int difficulty) throws IOException {
+        System.arraycopy(packed, 0, mRecord, 0, PuzzlePack.RECORD_SIZE);
+        PuzzlePack.setTag(mRecord, 0, kind, difficulty);
+        putRecord(mRecord);
+    }
+
+    private void putRecord(byte[] record) throws IOException {
+        if (mBuffer.remaining() < record.length) {
+            flush();
+        }
+        mBuffer.put(record);
+        mRecordCount += 1;
+    }
+
+    private void flush() throws IOException {
+        mBuffer.flip();
+        while (mBuffer.hasRemaining()) {
+            mBytesWritten += mChannel.write(mBuffer);
+        }
+        mBuffer.clear();
+    }
+
+}
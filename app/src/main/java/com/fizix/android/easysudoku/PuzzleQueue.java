@@ -0,0 +1,286 @@
+package com.fizix.android.easysudoku;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.Process;
+import android.util.Log;
+
+import com.fizix.android.easysudoku.data.Contract.QueuedPuzzles;
+import com.fizix.android.easysudoku.data.DbHelper;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+
+// A bounded queue of ready made puzzles for every difficulty.  A low priority background thread
+// keeps the queues topped up and stores every puzzle in the database, so the queues survive a
+// restart.  Taking a puzzle is O(1) and never touches the database on the calling thread.  There
+// is one queue for the whole process, owned by EasySudokuApplication, so a second worker never
+// loads rows the first one has not deleted yet.
+public class PuzzleQueue {
+
+    private static final String LOG_TAG = PuzzleQueue.class.getSimpleName();
+
+    // The number of puzzles we keep ready for every difficulty.
+    public static final int CAPACITY = 5;
+
+    // The difficulties we keep puzzles for.
+    private static final int[] DIFFICULTIES = {
+            Board.DIFFICULTY_EASY,
+            Board.DIFFICULTY_MEDIUM,
+            Board.DIFFICULTY_HARD
+    };
+
+    private static class Entry {
+        final long id;
+        final byte[] puzzle;
+        final byte[] solution;
+
+        Entry(long id, byte[] puzzle, byte[] solution) {
+            this.id = id;
+            this.puzzle = puzzle;
+            this.solution = solution;
+        }
+    }
+
+    private final DbHelper mDbHelper;
+
+    // The queued puzzles, indexed by difficulty, null for difficulties we keep none for.  Guarded
+    // by |this|.
+    private final List<ArrayDeque<Entry>> mQueues = new ArrayList<>();
+
+    // Rows of puzzles that were taken, waiting for the worker to delete them.  Guarded by |this|.
+    private final List<Long> mTakenIds = new ArrayList<>();
+
+    private int mHitCount;
+    private int mMissCount;
+
+    // The thread filling the queues, null when stopped.  Guarded by |this|.
+    private Thread mWorker;
+
+    // Whether a worker loaded the stored puzzles already.  Only the first one may, or a restarted
+    // worker would queue them a second time.  Guarded by |this|.
+    private boolean mLoadedFromDb;
+
+    public PuzzleQueue(DbHelper dbHelper) {
+        mDbHelper = dbHelper;
+
+        for (int difficulty = 0; difficulty <= Board.DIFFICULTY_HARD; difficulty++) {
+            mQueues.add(null);
+        }
+        for (int difficulty : DIFFICULTIES) {
+            mQueues.set(difficulty, new ArrayDeque<Entry>(CAPACITY));
+        }
+    }
+
+    public synchronized void start() {
+        if (mWorker != null) {
+            return;
+        }
+
+        final boolean loadFromDb = !mLoadedFromDb;
+        mLoadedFromDb = true;
+
+        mWorker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                runWorker(loadFromDb);
+            }
+        }, LOG_TAG);
+        mWorker.start();
+    }
+
+    // Stop the worker.  Rows of puzzles taken so far are still deleted before it exits.
+    public synchronized void stop() {
+        mWorker = null;
+        notifyAll();
+    }
+
+    // Take a puzzle for |difficulty| from the queue.  Returns false if the queue is empty.
+    public synchronized boolean take(int difficulty, byte[] puzzle, byte[] solution) {
+        final ArrayDeque<Entry> queue = queueFor(difficulty);
+        final Entry entry = queue != null ? queue.poll() : null;
+        if (entry == null) {
+            mMissCount += 1;
+            return false;
+        }
+
+        mHitCount += 1;
+        System.arraycopy(entry.puzzle, 0, puzzle, 0, 81);
+        System.arraycopy(entry.solution, 0, solution, 0, 81);
+
+        // Let the worker delete the row and generate a replacement.
+        mTakenIds.add(entry.id);
+        notifyAll();
+
+        return true;
+    }
+
+    public synchronized int size(int difficulty) {
+        final ArrayDeque<Entry> queue = queueFor(difficulty);
+        return queue != null ? queue.size() : 0;
+    }
+
+    public synchronized int getHitCount() {
+        return mHitCount;
+    }
+
+    public synchronized int getMissCount() {
+        return mMissCount;
+    }
+
+    private ArrayDeque<Entry> queueFor(int difficulty) {
+        if (difficulty < 0 || difficulty >= mQueues.size()) {
+            return null;
+        }
+        return mQueues.get(difficulty);
+    }
+
+    private void runWorker(boolean loadFromDb) {
+        if (loadFromDb) {
+            loadFromDb();
+        }
+
+        final Generator generator = new Generator(new Random());
+        final byte[] puzzle = new byte[81];
+        final byte[] solution = new byte[81];
+
+        boolean stopping = false;
+        while (!stopping) {
+            int difficulty;
+            long[] takenIds;
+
+            synchronized (this) {
+                while (true) {
+                    // Stop when we are no longer the current worker, but only after deleting the
+                    // rows of the puzzles taken so far, or they would be served again.
+                    if (mWorker != Thread.currentThread()) {
+                        stopping = true;
+                        difficulty = Board.DIFFICULTY_NONE;
+                        break;
+                    }
+
+                    difficulty = findShortQueue();
+                    if (difficulty != Board.DIFFICULTY_NONE || !mTakenIds.isEmpty()) {
+                        break;
+                    }
+
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        stopping = true;
+                        difficulty = Board.DIFFICULTY_NONE;
+                        break;
+                    }
+                }
+
+                takenIds = new long[mTakenIds.size()];
+                for (int i = 0; i < takenIds.length; i++) {
+                    takenIds[i] = mTakenIds.get(i);
+                }
+                mTakenIds.clear();
+            }
+
+            if (takenIds.length > 0) {
+                deleteFromDb(takenIds);
+            }
+
+            if (difficulty == Board.DIFFICULTY_NONE) {
+                continue;
+            }
+
+            generator.generate(puzzle, solution, difficulty);
+            final long id = insertIntoDb(difficulty, puzzle, solution);
+            if (id == -1) {
+                Log.e(LOG_TAG, "Could not insert queued puzzle.");
+                continue;
+            }
+
+            synchronized (this) {
+                mQueues.get(difficulty).add(new Entry(id, puzzle.clone(), solution.clone()));
+            }
+        }
+    }
+
+    // Returns the difficulty with the fewest queued puzzles if it is below capacity.
+    private int findShortQueue() {
+        int result = Board.DIFFICULTY_NONE;
+        int shortest = CAPACITY;
+        for (int difficulty : DIFFICULTIES) {
+            final int size = mQueues.get(difficulty).size();
+            if (size < shortest) {
+                result = difficulty;
+                shortest = size;
+            }
+        }
+        return result;
+    }
+
+    private void loadFromDb() {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        final String[] columns = {
+                QueuedPuzzles._ID,
+                QueuedPuzzles.COL_DIFFICULTY,
+                QueuedPuzzles.COL_PUZZLE,
+                QueuedPuzzles.COL_SOLUTION
+        };
+
+        Cursor cursor = db.query(QueuedPuzzles.TABLE_NAME, columns, null, null, null, null, QueuedPuzzles._ID);
+        try {
+            int loaded = 0;
+            while (cursor.moveToNext()) {
+                final long id = cursor.getLong(0);
+                final int difficulty = cursor.getInt(1);
+                final byte[] puzzle = cursor.getBlob(2);
+                final byte[] solution = cursor.getBlob(3);
+
+                synchronized (this) {
+                    final ArrayDeque<Entry> queue = queueFor(difficulty);
+                    if (queue == null || queue.size() >= CAPACITY || puzzle.length != 81 || solution.length != 81) {
+                        mTakenIds.add(id);
+                        continue;
+                    }
+                    queue.add(new Entry(id, puzzle, solution));
+                }
+                loaded += 1;
+            }
+
+            Log.d(LOG_TAG, "Loaded " + loaded + " queued puzzles.");
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private long insertIntoDb(int difficulty, byte[] puzzle, byte[] solution) {
+        ContentValues values = new ContentValues();
+        values.put(QueuedPuzzles.COL_DIFFICULTY, difficulty);
+        values.put(QueuedPuzzles.COL_PUZZLE, puzzle);
+        values.put(QueuedPuzzles.COL_SOLUTION, solution);
+
+        return mDbHelper.getWritableDatabase().insert(QueuedPuzzles.TABLE_NAME, null, values);
+    }
+
+    private void deleteFromDb(long[] ids) {
+        SQLiteDatabase db = mDbHelper.getWritableDatabase();
+
+        final String whereClause = QueuedPuzzles._ID + "=?";
+        final String[] whereArgs = new String[1];
+
+        db.beginTransaction();
+        try {
+            for (long id : ids) {
+                whereArgs[0] = String.valueOf(id);
+                db.delete(QueuedPuzzles.TABLE_NAME, whereClause, whereArgs);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+}
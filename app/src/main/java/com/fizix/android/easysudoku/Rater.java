@@ -0,0 +1,397 @@
+package com.fizix.android.easysudoku;
+
+
+// Rates a puzzle by solving it the way a person would and recording the hardest technique that
+// was needed.  Every step applies the easiest technique that makes progress, so the rating is the
+// hardest technique that could not be avoided.  Candidates are kept as bitmasks per cell and all
+// the state is preallocated.  Puzzles that need harder techniques take more steps to rate, and
+// those that need trial and error are the slowest; SolverBenchmark.rate() measures the rater.
+public class Rater {
+
+    // Techniques, from easiest to hardest.
+    public static final int TECHNIQUE_NONE = 0;
+    public static final int TECHNIQUE_HIDDEN_SINGLE = 1;
+    public static final int TECHNIQUE_NAKED_SINGLE = 2;
+    public static final int TECHNIQUE_LOCKED_CANDIDATES = 3;
+    public static final int TECHNIQUE_NAKED_PAIR = 4;
+    public static final int TECHNIQUE_HIDDEN_PAIR = 5;
+    public static final int TECHNIQUE_X_WING = 6;
+
+    // The puzzle can not be finished with the techniques above and needs trial and error.
+    public static final int TECHNIQUE_TRIAL = 7;
+
+    // The cells in every row (0-8), column (9-17) and box (18-26).
+    static final int[][] UNITS = new int[27][9];
+
+    // The 20 cells that share a row, column or box with every cell.
+    static final int[][] PEERS = new int[81][20];
+
+    static {
+        for (int i = 0; i < 9; i++) {
+            for (int j = 0; j < 9; j++) {
+                UNITS[i][j] = i * 9 + j;
+                UNITS[9 + i][j] = j * 9 + i;
+                UNITS[18 + i][j] = (i / 3) * 27 + (i % 3) * 3 + (j / 3) * 9 + j % 3;
+            }
+        }
+
+        for (int i = 0; i < 81; i++) {
+            int count = 0;
+            for (int j = 0; j < 81; j++) {
+                if (i != j && (Solver.ROW_OF[i] == Solver.ROW_OF[j] || Solver.COL_OF[i] == Solver.COL_OF[j]
+                        || Solver.BOX_OF[i] == Solver.BOX_OF[j])) {
+                    PEERS[i][count++] = j;
+                }
+            }
+        }
+    }
+
+    // The numbers placed so far and the candidates left for every empty cell.
+    private final int[] mNumbers = new int[81];
+    private final int[] mCandidates = new int[81];
+    private int mEmptyCount;
+
+    // Set when a cell runs out of candidates, which means the puzzle has no solution.
+    private boolean mContradiction;
+
+    // The cell and number placed by the last step, -1 if it only removed candidates.
+    private int mLastIndex;
+    private int mLastNumber;
+
+    public Rater() {
+    }
+
+    // Returns the hardest technique needed to solve |puzzle|.
+    public int rate(byte[] puzzle) {
+        if (!setPuzzle(puzzle)) {
+            return TECHNIQUE_TRIAL;
+        }
+
+        int hardest = TECHNIQUE_NONE;
+        while (mEmptyCount > 0) {
+            final int technique = step();
+            if (technique == TECHNIQUE_TRIAL) {
+                return TECHNIQUE_TRIAL;
+            }
+            if (technique > hardest) {
+                hardest = technique;
+            }
+        }
+
+        return hardest;
+    }
+
+    // Load |puzzle| and work out the candidates of every cell.  Returns false if the numbers
+    // already contradict each other.
+    public boolean setPuzzle(byte[] puzzle) {
+        mEmptyCount = 81;
+        mContradiction = false;
+        for (int i = 0; i < 81; i++) {
+            mNumbers[i] = 0;
+            mCandidates[i] = Solver.ALL_DIGITS;
+        }
+
+        for (int i = 0; i < 81; i++) {
+            final int number = puzzle[i];
+            if (number == 0) {
+                continue;
+            }
+            if ((mCandidates[i] & (1 << number)) == 0) {
+                return false;
+            }
+            place(i, number);
+        }
+
+        return !mContradiction;
+    }
+
+    public boolean isSolved() {
+        return mEmptyCount == 0;
+    }
+
+    public int getNumber(int index) {
+        return mNumbers[index];
+    }
+
+    public int getCandidates(int index) {
+        return mCandidates[index];
+    }
+
+    public int getLastIndex() {
+        return mLastIndex;
+    }
+
+    public int getLastNumber() {
+        return mLastNumber;
+    }
+
+    // Apply the easiest technique that makes progress and return it, or TECHNIQUE_TRIAL if none
+    // of them do.
+    public int step() {
+        mLastIndex = -1;
+        mLastNumber = 0;
+
+        if (mContradiction) {
+            return TECHNIQUE_TRIAL;
+        }
+        if (findHiddenSingle()) {
+            return TECHNIQUE_HIDDEN_SINGLE;
+        }
+        if (findNakedSingle()) {
+            return TECHNIQUE_NAKED_SINGLE;
+        }
+        if (findLockedCandidates()) {
+            return TECHNIQUE_LOCKED_CANDIDATES;
+        }
+        if (findNakedPair()) {
+            return TECHNIQUE_NAKED_PAIR;
+        }
+        if (findHiddenPair()) {
+            return TECHNIQUE_HIDDEN_PAIR;
+        }
+        if (findXWing()) {
+            return TECHNIQUE_X_WING;
+        }
+        return TECHNIQUE_TRIAL;
+    }
+
+    private void place(int index, int number) {
+        final int bit = 1 << number;
+        mNumbers[index] = number;
+        mCandidates[index] = 0;
+        mEmptyCount -= 1;
+
+        for (int peer : PEERS[index]) {
+            if (mNumbers[peer] == 0 && (mCandidates[peer] & bit) != 0) {
+                mCandidates[peer] &= ~bit;
+                if (mCandidates[peer] == 0) {
+                    mContradiction = true;
+                }
+            }
+        }
+
+        mLastIndex = index;
+        mLastNumber = number;
+    }
+
+    // Remove the candidates in |mask| from |index|, returns true if anything changed.
+    private boolean eliminate(int index, int mask) {
+        if (mNumbers[index] != 0 || (mCandidates[index] & mask) == 0) {
+            return false;
+        }
+        mCandidates[index] &= ~mask;
+        if (mCandidates[index] == 0) {
+            mContradiction = true;
+        }
+        return true;
+    }
+
+    // A digit that fits in only one cell of a row, column or box.
+    private boolean findHiddenSingle() {
+        // Boxes first, they are the easiest to spot.
+        for (int u = 26; u >= 0; u--) {
+            final int[] unit = UNITS[u];
+            int once = 0;
+            int twice = 0;
+            for (int index : unit) {
+                final int candidates = mCandidates[index];
+                twice |= once & candidates;
+                once |= candidates;
+            }
+
+            final int singles = once & ~twice;
+            if (singles == 0) {
+                continue;
+            }
+
+            final int bit = singles & -singles;
+            for (int index : unit) {
+                if ((mCandidates[index] & bit) != 0) {
+                    place(index, Integer.numberOfTrailingZeros(bit));
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // A cell with only one candidate left.
+    private boolean findNakedSingle() {
+        for (int i = 0; i < 81; i++) {
+            final int candidates = mCandidates[i];
+            if (mNumbers[i] == 0 && candidates != 0 && (candidates & (candidates - 1)) == 0) {
+                place(i, Integer.numberOfTrailingZeros(candidates));
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // A digit that is confined to one row or column inside a box (pointing), or to one box inside
+    // a row or column (claiming), can be removed from the rest of that row, column or box.
+    private boolean findLockedCandidates() {
+        for (int box = 0; box < 9; box++) {
+            // Only the three rows and three columns that run through the box.
+            for (int i = 0; i < 3; i++) {
+                final int row = (box / 3) * 3 + i;
+                final int col = 9 + (box % 3) * 3 + i;
+                if (eliminateLocked(18 + box, row) || eliminateLocked(row, 18 + box)
+                        || eliminateLocked(18 + box, col) || eliminateLocked(col, 18 + box)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // If the digits that |from| can only place where it overlaps |to| exist, remove them from the
+    // rest of |to|.
+    private boolean eliminateLocked(int from, int to) {
+        int inside = 0;
+        int outside = 0;
+        for (int index : UNITS[from]) {
+            if (contains(UNITS[to], index)) {
+                inside |= mCandidates[index];
+            } else {
+                outside |= mCandidates[index];
+            }
+        }
+
+        final int locked = inside & ~outside;
+        if (locked == 0) {
+            return false;
+        }
+
+        boolean changed = false;
+        for (int index : UNITS[to]) {
+            if (!contains(UNITS[from], index)) {
+                changed |= eliminate(index, locked);
+            }
+        }
+        return changed;
+    }
+
+    // Two cells in a unit with the same two candidates: no other cell in the unit can have them.
+    private boolean findNakedPair() {
+        for (int[] unit : UNITS) {
+            for (int a = 0; a < 9; a++) {
+                final int pair = mCandidates[unit[a]];
+                if (Integer.bitCount(pair) != 2) {
+                    continue;
+                }
+                for (int b = a + 1; b < 9; b++) {
+                    if (mCandidates[unit[b]] != pair) {
+                        continue;
+                    }
+
+                    boolean changed = false;
+                    for (int c = 0; c < 9; c++) {
+                        if (c != a && c != b) {
+                            changed |= eliminate(unit[c], pair);
+                        }
+                    }
+                    if (changed) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    // Two digits that fit in the same two cells of a unit only: those cells can not be anything
+    // else.
+    private boolean findHiddenPair() {
+        for (int[] unit : UNITS) {
+            for (int d1 = 1; d1 <= 9; d1++) {
+                final int cells1 = cellsWith(unit, 1 << d1);
+                if (Integer.bitCount(cells1) != 2) {
+                    continue;
+                }
+                for (int d2 = d1 + 1; d2 <= 9; d2++) {
+                    if (cellsWith(unit, 1 << d2) != cells1) {
+                        continue;
+                    }
+
+                    final int keep = (1 << d1) | (1 << d2);
+                    boolean changed = false;
+                    for (int c = 0; c < 9; c++) {
+                        if ((cells1 & (1 << c)) != 0) {
+                            changed |= eliminate(unit[c], ~keep & Solver.ALL_DIGITS);
+                        }
+                    }
+                    if (changed) {
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    // A digit that fits in the same two columns of two rows (or the same two rows of two columns)
+    // can be removed from the rest of those columns (or rows).
+    private boolean findXWing() {
+        for (int digit = 1; digit <= 9; digit++) {
+            final int bit = 1 << digit;
+            if (findXWing(bit, 0) || findXWing(bit, 9)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // |base| is 0 to look at rows and eliminate from columns, 9 for the other way around.
+    private boolean findXWing(int bit, int base) {
+        final int cover = 9 - base;
+        for (int a = 0; a < 9; a++) {
+            final int positions = cellsWith(UNITS[base + a], bit);
+            if (Integer.bitCount(positions) != 2) {
+                continue;
+            }
+            for (int b = a + 1; b < 9; b++) {
+                if (cellsWith(UNITS[base + b], bit) != positions) {
+                    continue;
+                }
+
+                boolean changed = false;
+                for (int p = 0; p < 9; p++) {
+                    if ((positions & (1 << p)) == 0) {
+                        continue;
+                    }
+                    final int[] line = UNITS[cover + p];
+                    for (int q = 0; q < 9; q++) {
+                        if (q != a && q != b) {
+                            changed |= eliminate(line[q], bit);
+                        }
+                    }
+                }
+                if (changed) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    // Bitmask of the positions in |unit| that still have |bit| as a candidate.
+    private int cellsWith(int[] unit, int bit) {
+        int positions = 0;
+        for (int i = 0; i < 9; i++) {
+            if ((mCandidates[unit[i]] & bit) != 0) {
+                positions |= 1 << i;
+            }
+        }
+        return positions;
+    }
+
+    private static boolean contains(int[] unit, int index) {
+        for (int i : unit) {
+            if (i == index) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+}
@@ -0,0 +1,231 @@
+package com.fizix.android.easysudoku;
+
+
+// Exact solver that keeps the used digits of every row, column and box in a bitmask (bit n set
+// means digit n is used) and always branches on the cell with the fewest candidates. All the state
+// lives in preallocated arrays, so a solver can be reused for any number of puzzles without
+// allocating.
+public class Solver {
+
+    // Mask with the bits for digits 1 to 9 set.
+    static final int ALL_DIGITS = 0x3FE;
+
+    // Lookup tables from a cell index to its row, column and box.
+    static final int[] ROW_OF = new int[81];
+    static final int[] COL_OF = new int[81];
+    static final int[] BOX_OF = new int[81];
+
+    static {
+        for (int i = 0; i < 81; i++) {
+            ROW_OF[i] = i / 9;
+            COL_OF[i] = i % 9;
+            BOX_OF[i] = (i / 27) * 3 + (i % 9) / 3;
+        }
+    }
+
+    // The numbers currently placed in each cell, 0 for empty.
+    private final int[] mCells = new int[81];
+
+    // The digits used in each row, column and box.
+    private final int[] mRows = new int[9];
+    private final int[] mCols = new int[9];
+    private final int[] mBoxes = new int[9];
+
+    // The first solution found by the last search.
+    private final int[] mSolution = new int[81];
+
+    // Whether the puzzle loaded last had conflicting numbers in it.
+    private boolean mConflicting;
+
+    // Search bookkeeping.
+    private int mSolutionCount;
+    private int mSolutionLimit;
+    private long mNodeCount;
+    private long mNodeLimit = Long.MAX_VALUE;
+    private boolean mAborted;
+
+    // Reading the clock on every node would cost more than the node, so a deadline is only checked
+    // once every this many nodes.
+    private static final int DEADLINE_CHECK_NODES = 1024;
+
+    private long mDeadline;
+    private boolean mHasDeadline;
+
+    // The node count at which the search next checks the node limit and the deadline, so the
+    // search itself only does a single compare per node.
+    private long mNodeCheck;
+
+    public Solver() {
+    }
+
+    // Load a puzzle from 81 numbers in row major order, 0 for empty cells.  Returns false if the
+    // numbers already break a row, column or box.
+    public boolean setPuzzle(byte[] numbers) {
+        assert (numbers.length >= 81);
+
+        for (int i = 0; i < 9; i++) {
+            mRows[i] = 0;
+            mCols[i] = 0;
+            mBoxes[i] = 0;
+        }
+
+        mConflicting = false;
+        for (int i = 0; i < 81; i++) {
+            final int number = numbers[i];
+            mCells[i] = number;
+            if (number == 0) {
+                continue;
+            }
+
+            final int bit = 1 << number;
+            if (((mRows[ROW_OF[i]] | mCols[COL_OF[i]] | mBoxes[BOX_OF[i]]) & bit) != 0) {
+                mConflicting = true;
+            }
+            mRows[ROW_OF[i]] |= bit;
+            mCols[COL_OF[i]] |= bit;
+            mBoxes[BOX_OF[i]] |= bit;
+        }
+
+        return !mConflicting;
+    }
+
+    // The maximum number of search nodes a single search may visit before it gives up.
+    public void setNodeLimit(long nodeLimit) {
+        mNodeLimit = nodeLimit;
+    }
+
+    public long getNodeLimit() {
+        return mNodeLimit;
+    }
+
+    // Give up searches still running at System.nanoTime() |deadline|, as if they ran out of nodes.
+    public void setDeadline(long deadline) {
+        mDeadline = deadline;
+        mHasDeadline = true;
+    }
+
+    public void clearDeadline() {
+        mHasDeadline = false;
+    }
+
+    // The number of search nodes the last search visited.
+    public long getNodeCount() {
+        return mNodeCount;
+    }
+
+    // Whether the last search ran out of nodes or time before it finished.
+    public boolean isAborted() {
+        return mAborted;
+    }
+
+    // Count the solutions of the loaded puzzle, stopping as soon as |limit| solutions are found.
+    public int countSolutions(int limit) {
+        mSolutionCount = 0;
+        mSolutionLimit = limit;
+        mNodeCount = 0;
+        mNodeCheck = mHasDeadline ? Math.min(mNodeLimit, DEADLINE_CHECK_NODES) : mNodeLimit;
+        mAborted = false;
+
+        if (mConflicting || limit <= 0) {
+            return 0;
+        }
+
+        search();
+
+        return mSolutionCount;
+    }
+
+    // Find the first solution of the loaded puzzle.
+    public boolean solve() {
+        return countSolutions(1) == 1;
+    }
+
+    // Copy the first solution found by the last search into |numbers|.
+    public void getSolution(byte[] numbers) {
+        assert (mSolutionCount > 0);
+        for (int i = 0; i < 81; i++) {
+            numbers[i] = (byte) mSolution[i];
+        }
+    }
+
+    // Called when the node count passes mNodeCheck.  Returns true if the search ran out of nodes or
+    // time, otherwise moves mNodeCheck on to the next check.
+    private boolean isOutOfBudget() {
+        if (mNodeCount > mNodeLimit || (mHasDeadline && System.nanoTime() - mDeadline > 0)) {
+            return true;
+        }
+        mNodeCheck = Math.min(mNodeLimit, mNodeCount + DEADLINE_CHECK_NODES);
+        return false;
+    }
+
+    // Returns true when the search should stop.
+    private boolean search() {
+        if (++mNodeCount > mNodeCheck && isOutOfBudget()) {
+            mAborted = true;
+            return true;
+        }
+
+        // Find the empty cell with the fewest candidates.
+        int bestIndex = -1;
+        int bestCandidates = 0;
+        int bestCount = 10;
+        for (int i = 0; i < 81; i++) {
+            if (mCells[i] != 0) {
+                continue;
+            }
+
+            final int candidates = ALL_DIGITS & ~(mRows[ROW_OF[i]] | mCols[COL_OF[i]] | mBoxes[BOX_OF[i]]);
+            final int count = Integer.bitCount(candidates);
+            if (count == 0) {
+                return false;
+            }
+
+            if (count < bestCount) {
+                bestIndex = i;
+                bestCandidates = candidates;
+                bestCount = count;
+                if (count == 1) {
+                    break;
+                }
+            }
+        }
+
+        // No empty cells left, so this is a solution.
+        if (bestIndex == -1) {
+            if (mSolutionCount == 0) {
+                System.arraycopy(mCells, 0, mSolution, 0, 81);
+            }
+            mSolutionCount += 1;
+            return mSolutionCount >= mSolutionLimit;
+        }
+
+        final int row = ROW_OF[bestIndex];
+        final int col = COL_OF[bestIndex];
+        final int box = BOX_OF[bestIndex];
+
+        int candidates = bestCandidates;
+        while (candidates != 0) {
+            final int bit = candidates & -candidates;
+            candidates ^= bit;
+
+            mCells[bestIndex] = Integer.numberOfTrailingZeros(bit);
+            mRows[row] |= bit;
+            mCols[col] |= bit;
+            mBoxes[box] |= bit;
+
+            final boolean stop = search();
+
+            mCells[bestIndex] = 0;
+            mRows[row] &= ~bit;
+            mCols[col] &= ~bit;
+            mBoxes[box] &= ~bit;
+
+            if (stop) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+}
@@ -0,0 +1,94 @@
+package com.fizix.android.easysudoku;
+
+import java.util.Random;
+
+
+// An element of the symmetry group of sudoku: an order of the bands and of the rows within each
+// band, an order of the stacks and of the columns within each stack, whether to transpose, and a
+// relabeling of the digits.  It is kept as a table of the cell every cell is taken from plus a
+// table of digits, so applying it is a single pass over the 81 cells however many moves it is
+// made of.
+public final class Transform {
+
+    // Every order of three things.
+    static final int[][] ORDERS = {
+            {0, 1, 2}, {0, 2, 1}, {1, 0, 2}, {1, 2, 0}, {2, 0, 1}, {2, 1, 0}
+    };
+
+    // The cell every cell of the result is taken from, and what every digit becomes.
+    private final int[] mSource = new int[81];
+    private final byte[] mDigits = new byte[10];
+
+    // Scratch space, so a transform can be applied in place and without allocating.
+    private final int[] mRows = new int[9];
+    private final int[] mColumns = new int[9];
+    private final byte[] mResult = new byte[81];
+
+    public Transform() {
+        setIdentity();
+    }
+
+    // The transform that leaves every grid as it is.
+    public void setIdentity() {
+        for (int i = 0; i < 81; i++) {
+            mSource[i] = i;
+        }
+        for (int i = 0; i < 10; i++) {
+            mDigits[i] = (byte) i;
+        }
+    }
+
+    // Pick an element of the whole group at random, every one as likely as any other.
+    public void setRandom(Random random) {
+        pickLines(random, mRows);
+        pickLines(random, mColumns);
+        final boolean transpose = random.nextBoolean();
+
+        for (int row = 0; row < 9; row++) {
+            for (int col = 0; col < 9; col++) {
+                mSource[row * 9 + col] = transpose
+                        ? mColumns[col] * 9 + mRows[row]
+                        : mRows[row] * 9 + mColumns[col];
+            }
+        }
+
+        // Empty cells stay empty, the digits are shuffled.
+        mDigits[0] = 0;
+        for (int i = 1; i < 10; i++) {
+            mDigits[i] = (byte) i;
+        }
+        for (int i = 9; i > 1; i--) {
+            final int j = 1 + random.nextInt(i);
+            final byte temp = mDigits[i];
+            mDigits[i] = mDigits[j];
+            mDigits[j] = temp;
+        }
+    }
+
+    // Pick an order of the 3 groups of lines and of the 3 lines within every group.
+    private static void pickLines(Random random, int[] lines) {
+        final int[] groups = ORDERS[random.nextInt(ORDERS.length)];
+        for (int group = 0; group < 3; group++) {
+            final int[] within = ORDERS[random.nextInt(ORDERS.length)];
+            for (int i = 0; i < 3; i++) {
+                lines[group * 3 + i] = groups[group] * 3 + within[i];
+            }
+        }
+    }
+
+    // Apply the transform to the 81 numbers in |in| and write the result to |out|, which must not
+    // be |in|.
+    public void apply(byte[] in, byte[] out) {
+        assert (in != out);
+        for (int i = 0; i < 81; i++) {
+            out[i] = mDigits[in[mSource[i]]];
+        }
+    }
+
+    // Apply the transform to |grid| in place.
+    public void apply(byte[] grid) {
+        apply(grid, mResult);
+        System.arraycopy(mResult, 0, grid, 0, 81);
+    }
+
+}
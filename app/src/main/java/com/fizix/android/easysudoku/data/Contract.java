@@ -16,8 +16,16 @@ public class Contract {
         public static final String COL_SEL_BLOCK_Y = "sel_block_y";
         public static final String COL_SEL_NUMBER = "sel_number";
 
+        // The whole grid in the packed format of Grid.pack().
+        public static final String COL_CELLS = "cells";
+
+        // The seed the puzzle was generated from, null if it was not.  Added in database version 6.
+        public static final String COL_SEED = "seed";
+
     }
 
+    // One row per filled in block.  Replaced by Boards.COL_CELLS in database version 3 and only
+    // kept to migrate older databases.
     public static final class Blocks implements BaseColumns {
 
         // The name of the table.
@@ -30,4 +38,37 @@ public class Contract {
 
     }
 
+    public static final class QueuedPuzzles implements BaseColumns {
+
+        // The name of the table.
+        public static final String TABLE_NAME = "queued_puzzles";
+
+        // Columns
+        public static final String COL_DIFFICULTY = "difficulty";
+        public static final String COL_PUZZLE = "puzzle";
+        public static final String COL_SOLUTION = "solution";
+
+    }
+
+    // Puzzles imported from puzzle collections.
+    public static final class Puzzles implements BaseColumns {
+
+        // The name of the table.
+        public static final String TABLE_NAME = "puzzles";
+        public static final String INDEX_FINGERPRINT = "puzzles_fingerprint";
+
+        // Columns
+        public static final String COL_DIFFICULTY = "difficulty";
+        public static final String COL_RATING = "rating";
+
+        // Canonicalizer.fingerprint() of the puzzle, unique so the same puzzle under a symmetry
+        // is only stored once.
+        public static final String COL_FINGERPRINT = "fingerprint";
+
+        // The puzzle and its solution in the format of Grid.packNumbers().
+        public static final String COL_PUZZLE = "puzzle";
+        public static final String COL_SOLUTION = "solution";
+
+    }
+
 }
@@ -1,21 +1,79 @@
 package com.fizix.android.easysudoku.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
+import com.fizix.android.easysudoku.Canonicalizer;
+import com.fizix.android.easysudoku.Grid;
 import com.fizix.android.easysudoku.data.Contract.Boards;
 import com.fizix.android.easysudoku.data.Contract.Blocks;
+import com.fizix.android.easysudoku.data.Contract.Puzzles;
+import com.fizix.android.easysudoku.data.Contract.QueuedPuzzles;
 
 public class DbHelper extends SQLiteOpenHelper {
 
     public static final String DATABASE_NAME = "EasySudoku.db";
-    public static final int DATABASE_VERSION = 1;
+    public static final int DATABASE_VERSION = 6;
+
+    // Compiled statement that updates the board row of a difficulty, reused for every save while
+    // the database is open.
+    private SQLiteStatement mUpdateBoardStatement;
+
+    // Compiled statement that inserts an imported puzzle.
+    private SQLiteStatement mInsertPuzzleStatement;
 
     public DbHelper(Context context) {
         super(context, DATABASE_NAME, null, DATABASE_VERSION);
     }
 
+    // Returns the statement to update a board row.  Bind the selected block x, y, selected
+    // number, packed cells, seed and difficulty, in that order.
+    public synchronized SQLiteStatement getUpdateBoardStatement() {
+        if (mUpdateBoardStatement == null) {
+            mUpdateBoardStatement = getWritableDatabase().compileStatement("UPDATE " + Boards.TABLE_NAME + " SET " +
+                    Boards.COL_SEL_BLOCK_X + "=?, " +
+                    Boards.COL_SEL_BLOCK_Y + "=?, " +
+                    Boards.COL_SEL_NUMBER + "=?, " +
+                    Boards.COL_CELLS + "=?, " +
+                    Boards.COL_SEED + "=? " +
+                    "WHERE " + Boards.COL_DIFFICULTY + "=?");
+        }
+        return mUpdateBoardStatement;
+    }
+
+    // Returns the statement to insert a puzzle.  Bind the difficulty, rating, fingerprint, packed
+    // puzzle and packed solution, in that order.  A puzzle with a fingerprint that is already in
+    // the table is skipped, and executeInsert() returns -1.
+    public synchronized SQLiteStatement getInsertPuzzleStatement() {
+        if (mInsertPuzzleStatement == null) {
+            mInsertPuzzleStatement = getWritableDatabase().compileStatement("INSERT OR IGNORE INTO " + Puzzles.TABLE_NAME + " (" +
+                    Puzzles.COL_DIFFICULTY + ", " +
+                    Puzzles.COL_RATING + ", " +
+                    Puzzles.COL_FINGERPRINT + ", " +
+                    Puzzles.COL_PUZZLE + ", " +
+                    Puzzles.COL_SOLUTION + ") " +
+                    "VALUES (?, ?, ?, ?, ?)");
+        }
+        return mInsertPuzzleStatement;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (mUpdateBoardStatement != null) {
+            mUpdateBoardStatement.close();
+            mUpdateBoardStatement = null;
+        }
+        if (mInsertPuzzleStatement != null) {
+            mInsertPuzzleStatement.close();
+            mInsertPuzzleStatement = null;
+        }
+        super.close();
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
         // Create the table holding the boards.
@@ -25,27 +83,154 @@ public class DbHelper extends SQLiteOpenHelper {
                 Boards.COL_SEL_BLOCK_X + " INTEGER NOT NULL, " +
                 Boards.COL_SEL_BLOCK_Y + " INTEGER NOT NULL, " +
                 Boards.COL_SEL_NUMBER + " INTEGER NOT NULL, " +
+                Boards.COL_CELLS + " BLOB, " +
+                Boards.COL_SEED + " INTEGER, " +
                 "UNIQUE(" + Boards.COL_DIFFICULTY + ") ON CONFLICT REPLACE" +
                 ")";
 
-        // Create the table holding the blocks.
-        final String SQL_CREATE_BLOCKS_TABLE = "CREATE TABLE " + Blocks.TABLE_NAME + " (" +
-                Blocks._ID + " INTEGER PRIMARY KEY, " +
-                Blocks.COL_BOARD_ID + " INTEGER NOT NULL, " +
-                Blocks.COL_INDEX + " INTEGER NOT NULL, " +
-                Blocks.COL_NUMBER + " INTEGER NOT NULL, " +
-                "FOREIGN KEY (" + Blocks.COL_BOARD_ID + ") REFERENCES " + Boards.TABLE_NAME + " (" + Boards._ID + "), " +
-                "UNIQUE(" + Blocks.COL_BOARD_ID + ", " + Blocks.COL_INDEX + ") ON CONFLICT REPLACE" +
-                ")";
-
         db.execSQL(SQL_CREATE_BOARDS_TABLE);
-        db.execSQL(SQL_CREATE_BLOCKS_TABLE);
+
+        createQueuedPuzzlesTable(db);
+        createPuzzlesTable(db);
     }
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        db.execSQL("DROP_TABLE_IF EXISTS " + Blocks.TABLE_NAME);
-        onCreate(db);
+        if (oldVersion < 2) {
+            createQueuedPuzzlesTable(db);
+        }
+
+        if (oldVersion < 3) {
+            migrateBlocksToCells(db);
+        }
+
+        if (oldVersion < 4) {
+            createPuzzlesTable(db);
+        } else if (oldVersion < 5) {
+            addPuzzleFingerprints(db);
+        }
+
+        if (oldVersion < 6) {
+            // Boards saved before had no seed stored.
+            db.execSQL("ALTER TABLE " + Boards.TABLE_NAME + " ADD COLUMN " + Boards.COL_SEED + " INTEGER");
+        }
+    }
+
+    // Move the blocks of every board into the packed cells column and drop the blocks table.
+    private void migrateBlocksToCells(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + Boards.TABLE_NAME + " ADD COLUMN " + Boards.COL_CELLS + " BLOB");
+
+        final String[] columns = {Blocks.COL_BOARD_ID, Blocks.COL_INDEX, Blocks.COL_NUMBER};
+        final String orderBy = Blocks.COL_BOARD_ID;
+
+        Grid grid = new Grid();
+        byte[] packed = new byte[Grid.PACKED_SIZE];
+        ContentValues values = new ContentValues();
+        final String whereClause = Boards._ID + "=?";
+        final String[] whereArgs = new String[1];
+
+        Cursor cursor = db.query(Blocks.TABLE_NAME, columns, null, null, null, null, orderBy);
+        try {
+            long boardId = -1;
+            while (true) {
+                final boolean hasRow = cursor.moveToNext();
+                final long rowBoardId = hasRow ? cursor.getLong(0) : -1;
+
+                // Write out the previous board once all its blocks were read.
+                if (boardId != -1 && rowBoardId != boardId) {
+                    // Older databases did not know which blocks were givens, so they all become
+                    // user entries.
+                    grid.pack(packed);
+                    values.put(Boards.COL_CELLS, packed);
+                    whereArgs[0] = String.valueOf(boardId);
+                    db.update(Boards.TABLE_NAME, values, whereClause, whereArgs);
+                    grid.clear();
+                }
+
+                if (!hasRow) {
+                    break;
+                }
+
+                boardId = rowBoardId;
+                final int index = cursor.getInt(1);
+                final int number = cursor.getInt(2);
+                if (index >= 0 && index < 81 && number >= 0 && number <= 9) {
+                    grid.set(index, number);
+                }
+            }
+        } finally {
+            cursor.close();
+        }
+
+        db.execSQL("DROP TABLE IF EXISTS " + Blocks.TABLE_NAME);
+    }
+
+    private void createQueuedPuzzlesTable(SQLiteDatabase db) {
+        // Create the table holding the pre-generated puzzles waiting to be played.
+        final String SQL_CREATE_QUEUED_PUZZLES_TABLE = "CREATE TABLE " + QueuedPuzzles.TABLE_NAME + " (" +
+                QueuedPuzzles._ID + " INTEGER PRIMARY KEY, " +
+                QueuedPuzzles.COL_DIFFICULTY + " INTEGER NOT NULL, " +
+                QueuedPuzzles.COL_PUZZLE + " BLOB NOT NULL, " +
+                QueuedPuzzles.COL_SOLUTION + " BLOB NOT NULL" +
+                ")";
+
+        db.execSQL(SQL_CREATE_QUEUED_PUZZLES_TABLE);
+    }
+
+    private void createPuzzlesTable(SQLiteDatabase db) {
+        // Create the table holding the imported puzzles.
+        final String SQL_CREATE_PUZZLES_TABLE = "CREATE TABLE " + Puzzles.TABLE_NAME + " (" +
+                Puzzles._ID + " INTEGER PRIMARY KEY, " +
+                Puzzles.COL_DIFFICULTY + " INTEGER NOT NULL, " +
+                Puzzles.COL_RATING + " INTEGER NOT NULL, " +
+                Puzzles.COL_FINGERPRINT + " INTEGER, " +
+                Puzzles.COL_PUZZLE + " BLOB NOT NULL, " +
+                Puzzles.COL_SOLUTION + " BLOB NOT NULL" +
+                ")";
+
+        db.execSQL(SQL_CREATE_PUZZLES_TABLE);
+        createPuzzleFingerprintIndex(db);
+    }
+
+    private void createPuzzleFingerprintIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX " + Puzzles.INDEX_FINGERPRINT + " ON " +
+                Puzzles.TABLE_NAME + " (" + Puzzles.COL_FINGERPRINT + ")");
+    }
+
+    // Fingerprint the puzzles imported before database version 5 and drop the ones that turn out
+    // to be the same puzzle.
+    private void addPuzzleFingerprints(SQLiteDatabase db) {
+        db.execSQL("ALTER TABLE " + Puzzles.TABLE_NAME + " ADD COLUMN " + Puzzles.COL_FINGERPRINT + " INTEGER");
+        createPuzzleFingerprintIndex(db);
+
+        // A row whose fingerprint is taken already keeps a null one, and is deleted below.
+        SQLiteStatement update = db.compileStatement("UPDATE OR IGNORE " + Puzzles.TABLE_NAME + " SET " +
+                Puzzles.COL_FINGERPRINT + "=? WHERE " + Puzzles._ID + "=?");
+
+        final String[] columns = {Puzzles._ID, Puzzles.COL_PUZZLE};
+
+        Canonicalizer canonicalizer = new Canonicalizer();
+        byte[] numbers = new byte[81];
+
+        Cursor cursor = db.query(Puzzles.TABLE_NAME, columns, null, null, null, null, Puzzles._ID);
+        try {
+            while (cursor.moveToNext()) {
+                final byte[] puzzle = cursor.getBlob(1);
+                if (puzzle.length != Grid.PACKED_NUMBERS_SIZE) {
+                    continue;
+                }
+
+                Grid.unpackNumbers(puzzle, 0, numbers);
+                update.bindLong(1, canonicalizer.fingerprint(numbers));
+                update.bindLong(2, cursor.getLong(0));
+                update.executeUpdateDelete();
+            }
+        } finally {
+            cursor.close();
+            update.close();
+        }
+
+        db.delete(Puzzles.TABLE_NAME, Puzzles.COL_FINGERPRINT + " IS NULL", null);
     }
 
 }
@@ -8,6 +8,7 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import com.fizix.android.easysudoku.Board;
+import com.fizix.android.easysudoku.CellSet;
 import com.fizix.android.easysudoku.R;
 import com.fizix.android.easysudoku.views.NumberButtonView;
 
@@ -72,7 +73,21 @@ public class ButtonsFragment extends Fragment implements Board.Listener, NumberB
     }
 
     @Override
-    public void onNumbersChanged(int x, int y, int number) {
+    public void onNumbersChanged(CellSet cells) {
+    }
+
+    @Override
+    public void onNumberButtonLongPressed(int number) {
+        if (mBoard == null) {
+            return;
+        }
+
+        // Switch between filling in numbers and pencil marks.
+        final boolean notesMode = !mBoard.isNotesMode();
+        mBoard.setNotesMode(notesMode);
+        for (int i = 0; i < 10; ++i) {
+            mButtons[i].setNotesMode(notesMode);
+        }
     }
 
     @Override
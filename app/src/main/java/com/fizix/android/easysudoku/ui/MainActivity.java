@@ -15,8 +15,13 @@ import android.widget.AdapterView;
 import android.widget.ListView;
 
 import com.fizix.android.easysudoku.Board;
+import com.fizix.android.easysudoku.BoardPersister;
+import com.fizix.android.easysudoku.EasySudokuApplication;
+import com.fizix.android.easysudoku.Generator;
+import com.fizix.android.easysudoku.PuzzleQueue;
 import com.fizix.android.easysudoku.R;
-import com.fizix.android.easysudoku.data.DbHelper;
+
+import java.util.Calendar;
 
 public class MainActivity extends AppCompatActivity implements AdapterView.OnItemClickListener {
 
@@ -27,8 +32,11 @@ public class MainActivity extends AppCompatActivity implements AdapterView.OnIte
     // The difficulty we are currently playing.
     private int mDifficulty = Board.DIFFICULTY_NONE;
 
-    // Helper we use to get the board data from the database.
-    private DbHelper mDbHelper;
+    // Loads and saves boards off the UI thread.
+    private BoardPersister mPersister;
+
+    // Ready made puzzles for new games.
+    private PuzzleQueue mPuzzleQueue;
 
     // The board we are currently playing.
     Board mBoard = null;
@@ -84,12 +92,36 @@ public class MainActivity extends AppCompatActivity implements AdapterView.OnIte
         mDifficultyList.setOnItemClickListener(this);
         mDifficultyList.setSelection(mDifficulty - 1);
 
-        // Create the DB helper.
-        mDbHelper = new DbHelper(this);
+            // The persister and the puzzle queue outlive the activity, so a rotation keeps using the
+        // same database connection and background threads.
+        EasySudokuApplication application = EasySudokuApplication.get(this);
+        mPersister = application.getPersister();
+        mPuzzleQueue = application.getPuzzleQueue();
 
         switchToBoard(mDifficulty);
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+
+        // The persister belongs to the application, it writes the release before any load of the
+        // next activity.
+        if (mBoard != null) {
+            mPersister.release(mBoard);
+        }
+    }
+
+    @Override
+    protected void onPause() {
+        super.onPause();
+
+        // Save while we still can, this also compacts the journal.
+        if (mBoard != null) {
+            mPersister.save(mBoard);
+        }
+    }
+
     @Override
     protected void onPostCreate(Bundle savedInstanceState) {
         super.onPostCreate(savedInstanceState);
@@ -112,7 +144,35 @@ public class MainActivity extends AppCompatActivity implements AdapterView.OnIte
 
         //noinspection SimplifiableIfStatement
         if (id == R.id.action_settings) {
-            mBoard.createNew();
+            mPersister.createNew(mBoard);
+            return true;
+        }
+
+        if (id == R.id.action_undo) {
+            mBoard.undo();
+            return true;
+        }
+
+        if (id == R.id.action_redo) {
+            mBoard.redo();
+            return true;
+        }
+
+        if (id == R.id.action_daily) {
+            // The same puzzle for everyone today, generated in the background.
+            Calendar today = Calendar.getInstance();
+            mPersister.createNew(mBoard, Generator.getDailySeed(today.get(Calendar.YEAR),
+                    today.get(Calendar.MONTH) + 1, today.get(Calendar.DAY_OF_MONTH)));
+            return true;
+        }
+
+        if (id == R.id.action_hint) {
+            // Fill in the next number we can work out.
+            Board.Hint hint = mBoard.nextHint();
+            if (hint != null) {
+                Log.d(LOG_TAG, hint.toString());
+                mBoard.setNumberAt(hint.x, hint.y, hint.number);
+            }
             return true;
         }
 
@@ -145,14 +205,16 @@ public class MainActivity extends AppCompatActivity implements AdapterView.OnIte
     private void switchToBoard(int difficulty) {
         // If a board already exists, save it first.
         if (mBoard != null) {
-            mBoard.saveToDb(mDbHelper);
+            mPersister.release(mBoard);
         }
 
         // Create the board.
         mBoard = new Board(difficulty);
+        mBoard.setPuzzleQueue(mPuzzleQueue);
+        mBoard.setPuzzleBank(EasySudokuApplication.get(this).getPuzzleBank());
 
-        // Load the board from the database.
-        mBoard.loadFromDb(mDbHelper);
+        // Load the board from the database in the background, the views update when it arrives.
+        mPersister.load(mBoard, null);
 
         // Create the fragment that will hold the board.
         PlayFragment playFragment = PlayFragment.newInstance(mBoard);
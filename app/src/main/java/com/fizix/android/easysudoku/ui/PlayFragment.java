@@ -9,12 +9,13 @@ import android.view.View;
 import android.view.ViewGroup;
 
 import com.fizix.android.easysudoku.Board;
+import com.fizix.android.easysudoku.CellSet;
 import com.fizix.android.easysudoku.R;
 import com.fizix.android.easysudoku.data.DbHelper;
 import com.fizix.android.easysudoku.views.BoardView;
 import com.fizix.android.easysudoku.views.NumberButtonView;
 
-public class PlayFragment extends Fragment implements NumberButtonView.SelectListener {
+public class PlayFragment extends Fragment implements Board.Listener, NumberButtonView.SelectListener {
 
     private static final String LOG_TAG = PlayFragment.class.getSimpleName();
 
@@ -58,9 +59,19 @@ public class PlayFragment extends Fragment implements NumberButtonView.SelectLis
         mButtons[8] = linkButton(view, R.id.button_8, mBoard.getActionNumber() == 8);
         mButtons[9] = linkButton(view, R.id.button_9, mBoard.getActionNumber() == 9);
 
+        // The board may still be loading, follow its action number when it arrives.
+        mBoard.addListener(this);
+
         return view;
     }
 
+    @Override
+    public void onDestroyView() {
+        super.onDestroyView();
+
+        mBoard.removeListener(this);
+    }
+
     @Override
     public void onDestroy() {
         super.onDestroy();
@@ -72,9 +83,41 @@ public class PlayFragment extends Fragment implements NumberButtonView.SelectLis
         NumberButtonView button = (NumberButtonView) view.findViewById(resourceId);
         button.setSelectListener(this);
         button.setSelected(selected);
+        button.setNotesMode(mBoard.isNotesMode());
         return button;
     }
 
+    @Override
+    public void onActionNumberChanged(int actionNumber) {
+        // Only update the buttons, the board already knows.
+        mSelectedNumber = actionNumber;
+        for (int i = 0; i < 10; ++i) {
+            mButtons[i].setSelected(actionNumber == i);
+        }
+    }
+
+    @Override
+    public void onSelectedBlockChanged(int x, int y, int number) {
+    }
+
+    @Override
+    public void onNumbersChanged(CellSet cells) {
+    }
+
+    @Override
+    public void onNumberButtonLongPressed(int number) {
+        if (mBoard == null) {
+            return;
+        }
+
+        // Switch between filling in numbers and pencil marks.
+        final boolean notesMode = !mBoard.isNotesMode();
+        mBoard.setNotesMode(notesMode);
+        for (int i = 0; i < 10; ++i) {
+            mButtons[i].setNotesMode(notesMode);
+        }
+    }
+
     @Override
     public void onNumberButtonSelected(int number) {
         Log.d(LOG_TAG, String.format("Button %d pressed.", number));
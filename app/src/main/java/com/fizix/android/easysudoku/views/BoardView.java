@@ -2,6 +2,7 @@ package com.fizix.android.easysudoku.views;
 
 import android.content.Context;
 import android.content.res.TypedArray;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.Paint;
@@ -14,6 +15,7 @@ import android.view.MotionEvent;
 import android.view.View;
 
 import com.fizix.android.easysudoku.Board;
+import com.fizix.android.easysudoku.CellSet;
 import com.fizix.android.easysudoku.R;
 
 
@@ -21,6 +23,12 @@ public class BoardView extends View implements Board.Listener {
 
     private static final String LOG_TAG = BoardView.class.getSimpleName();
 
+    // Set to log every frame.  Off by default so the logging is compiled out of onDraw.
+    private static final boolean DEBUG_DRAW = false;
+
+    // The strings we draw for every number, indexed by the number.
+    private static final String[] NUMBER_STRINGS = {"", "1", "2", "3", "4", "5", "6", "7", "8", "9"};
+
     // The board we are painting.
     private Board mBoard = null;
 
@@ -44,6 +52,12 @@ public class BoardView extends View implements Board.Listener {
     private Paint mLinePaint;
     private Paint mSelectedLinePaint;
 
+    // The paint used for the background of cells with conflicting numbers.
+    private Paint mConflictPaint;
+
+    // The paint used to render the pencil mark atlas.
+    private TextPaint mMarkPaint;
+
     // The paint used for the numbers on the board.
     private TextPaint mTextPaint;
     private TextPaint mSelectedTextPaint;
@@ -51,6 +65,38 @@ public class BoardView extends View implements Board.Listener {
     // Temporary Rect used in painting.
     private Rect mBoundsRect;
 
+    // The shaded boxes and grid lines, which only change with the size of the view.  Null until
+    // it is needed.
+    private Bitmap mStaticLayer;
+
+    // The digits 1 to 9 pre-rendered side by side at pencil mark size, so a mark is a bitmap copy
+    // instead of a text layout.  Null until it is needed.
+    private Bitmap mMarkAtlas;
+    private int mMarkSize;
+    private final Rect mMarkSrcRect = new Rect();
+    private final Rect mMarkDstRect = new Rect();
+
+    // How far to move every number from the center of its cell to center its glyph, worked out
+    // whenever the text size changes.
+    private final float[] mNumberOffsetX = new float[10];
+    private final float[] mNumberOffsetY = new float[10];
+
+    // Temporary Rects used to work out which cells need to be repainted.
+    private final Rect mCellRect = new Rect();
+    private final Rect mClipRect = new Rect();
+
+    // The selection and action number we painted last, so we know what to repaint when they
+    // change.  Zero when nothing is selected.
+    private int mPaintedSelectedX;
+    private int mPaintedSelectedY;
+    private int mPaintedActionNumber;
+
+    // The cells we painted as conflicting.
+    private final CellSet mPaintedConflicts = new CellSet();
+
+    // The cells whose conflicts are checked after a change, kept so checking does not allocate.
+    private final CellSet mConflictCheckCells = new CellSet();
+
     public BoardView(Context context) {
         super(context);
         init(null, 0);
@@ -78,7 +124,14 @@ public class BoardView extends View implements Board.Listener {
         // Set ourselves as a listener.
         if (mBoard != null) {
             mBoard.addListener(this);
+            mPaintedSelectedX = mBoard.getSelectedBlockX();
+            mPaintedSelectedY = mBoard.getSelectedBlockY();
+            mPaintedActionNumber = mBoard.getActionNumber();
+            mConflictCheckCells.addAll();
+            updateConflicts(mConflictCheckCells);
         }
+
+        invalidate();
     }
 
     public Board getBoard() {
@@ -87,17 +140,90 @@ public class BoardView extends View implements Board.Listener {
 
     @Override
     public void onSelectedBlockChanged(int x, int y, int number) {
-        invalidate();
+        // Repaint where the selection was and where it is now.
+        invalidateCell(mPaintedSelectedX - 1, mPaintedSelectedY - 1);
+        invalidateCell(x - 1, y - 1);
+
+        mPaintedSelectedX = x;
+        mPaintedSelectedY = y;
     }
 
     @Override
     public void onActionNumberChanged(int actionNumber) {
-        invalidate();
+        if (mBoard == null) {
+            return;
+        }
+
+        // Only the cells with the old or the new number change color.
+        final int oldActionNumber = mPaintedActionNumber;
+        for (int y = 0; y < 9; ++y) {
+            for (int x = 0; x < 9; ++x) {
+                final int number = mBoard.getNumberAt(x + 1, y + 1);
+                if (number != 0 && (number == oldActionNumber || number == actionNumber)) {
+                    invalidateCell(x, y);
+                }
+            }
+        }
+
+        mPaintedActionNumber = actionNumber;
     }
 
     @Override
-    public void onNumbersChanged(int x, int y, int number) {
-        invalidate();
+    public void onNumbersChanged(CellSet cells) {
+        if (cells.size() == 81) {
+            invalidate();
+        } else {
+            for (int index = cells.nextSetBit(0); index != -1; index = cells.nextSetBit(index + 1)) {
+                invalidateCell(index % 9, index / 9);
+            }
+        }
+
+        // A change can also start or end a conflict in other cells of its row, column or box, but
+        // nowhere else.
+        mConflictCheckCells.copyFrom(cells);
+        if (cells.size() != 81) {
+            Board.addPeers(cells, mConflictCheckCells);
+        }
+        updateConflicts(mConflictCheckCells);
+    }
+
+    // Repaint the cells in |cells| that started or stopped conflicting since we last painted them.
+    private void updateConflicts(CellSet cells) {
+        for (int index = cells.nextSetBit(0); index != -1; index = cells.nextSetBit(index + 1)) {
+            final int x = index % 9;
+            final int y = index / 9;
+            final boolean conflict = mBoard.isConflict(x + 1, y + 1);
+            if (conflict != mPaintedConflicts.contains(index)) {
+                mPaintedConflicts.set(index, conflict);
+                invalidateCell(x, y);
+            }
+        }
+    }
+
+    // Work out the screen area of the cell at |x|, |y| (0 based), including its border lines.
+    private void getCellRect(int x, int y, Rect out) {
+        final float cellWidth = ((float) mBlockWidth - mLineWidth) / 9.0f;
+        final float cellHeight = ((float) mBlockHeight - mLineWidth) / 9.0f;
+
+        out.set(
+                (int) Math.floor((float) x * cellWidth),
+                (int) Math.floor((float) y * cellHeight),
+                (int) Math.ceil((float) (x + 1) * cellWidth + mLineWidth),
+                (int) Math.ceil((float) (y + 1) * cellHeight + mLineWidth)
+        );
+    }
+
+    // Invalidate the screen area of the cell at |x|, |y| (0 based).  Only software rendering keeps
+    // to the area.  A hardware accelerated view, which this is by default, ignores it from Android
+    // 5.0 on and records the whole of onDraw() again, so there the cached static layer and glyph
+    // atlas are what keep a redraw cheap.
+    private void invalidateCell(int x, int y) {
+        if (x < 0 || x >= 9 || y < 0 || y >= 9) {
+            return;
+        }
+
+        getCellRect(x, y, mCellRect);
+        invalidate(mCellRect);
     }
 
     private void init(AttributeSet attrs, int defStyle) {
@@ -129,6 +255,13 @@ public class BoardView extends View implements Board.Listener {
         mSelectedLinePaint = new Paint();
         mSelectedLinePaint.setColor(Color.RED);
 
+        mConflictPaint = new Paint();
+        mConflictPaint.setColor(Color.rgb(255, 192, 192));
+
+        mMarkPaint = new TextPaint();
+        mMarkPaint.setColor(Color.DKGRAY);
+        mMarkPaint.setFlags(Paint.ANTI_ALIAS_FLAG);
+
         mTextPaint = new TextPaint();
         mTextPaint.setColor(Color.BLACK);
         mTextPaint.setFlags(Paint.ANTI_ALIAS_FLAG);
@@ -156,16 +289,98 @@ public class BoardView extends View implements Board.Listener {
         float textSize = (float) mBlockWidth / (9.0f + 5.0f);
         mTextPaint.setTextSize(textSize);
         mSelectedTextPaint.setTextSize(textSize);
+
+        // Both paints use the same typeface and size, so the glyph bounds are the same.
+        for (int number = 1; number <= 9; ++number) {
+            mTextPaint.getTextBounds(NUMBER_STRINGS[number], 0, 1, mBoundsRect);
+            mNumberOffsetX[number] = (float) mBoundsRect.centerX();
+            mNumberOffsetY[number] = (float) mBoundsRect.centerY();
+        }
+
+        // Pencil marks sit in a 3x3 grid inside the cell.
+        mMarkSize = (int) Math.floor((((float) mBlockWidth - mLineWidth) / 9.0f - mLineWidth) / 3.0f);
+
+        // The cached layers have to be drawn again at the new size.
+        releaseStaticLayer();
+        buildStaticLayer();
+        releaseMarkAtlas();
+        buildMarkAtlas();
     }
 
     @Override
-    protected void onDraw(Canvas canvas) {
-        super.onDraw(canvas);
+    protected void onDetachedFromWindow() {
+        super.onDetachedFromWindow();
+
+        // Rebuilt in onDraw if we are attached again.
+        releaseStaticLayer();
+        releaseMarkAtlas();
+    }
+
+    private void buildMarkAtlas() {
+        if (mMarkSize <= 0) {
+            return;
+        }
+
+        mMarkAtlas = Bitmap.createBitmap(mMarkSize * 9, mMarkSize, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(mMarkAtlas);
+
+        mMarkPaint.setTextSize((float) mMarkSize * 0.8f);
+        for (int number = 1; number <= 9; ++number) {
+            mMarkPaint.getTextBounds(NUMBER_STRINGS[number], 0, 1, mBoundsRect);
+            canvas.drawText(
+                    NUMBER_STRINGS[number],
+                    (float) (number - 1) * mMarkSize + (float) mMarkSize / 2.0f - (float) mBoundsRect.centerX(),
+                    (float) mMarkSize / 2.0f - (float) mBoundsRect.centerY(),
+                    mMarkPaint
+            );
+        }
+    }
 
-        Log.d(LOG_TAG, "onDraw");
+    private void releaseMarkAtlas() {
+        if (mMarkAtlas != null) {
+            mMarkAtlas.recycle();
+            mMarkAtlas = null;
+        }
+    }
+
+    // Copy the glyph of every marked number from the atlas into its spot in the cell.
+    private void drawMarks(Canvas canvas, int marks, float left, float top) {
+        if (mMarkAtlas == null) {
+            buildMarkAtlas();
+            if (mMarkAtlas == null) {
+                return;
+            }
+        }
+
+        for (int number = 1; number <= 9; ++number) {
+            if ((marks & (1 << number)) == 0)
+                continue;
+
+            final int dstLeft = (int) left + ((number - 1) % 3) * mMarkSize;
+            final int dstTop = (int) top + ((number - 1) / 3) * mMarkSize;
+            mMarkSrcRect.set((number - 1) * mMarkSize, 0, number * mMarkSize, mMarkSize);
+            mMarkDstRect.set(dstLeft, dstTop, dstLeft + mMarkSize, dstTop + mMarkSize);
+            canvas.drawBitmap(mMarkAtlas, mMarkSrcRect, mMarkDstRect, null);
+        }
+    }
 
-        Log.d(LOG_TAG, String.format("onDraw: %d -- %d", getWidth(), getHeight()));
+    private void buildStaticLayer() {
+        if (mBlockWidth <= 0 || mBlockHeight <= 0) {
+            return;
+        }
 
+        mStaticLayer = Bitmap.createBitmap(mBlockWidth, mBlockHeight, Bitmap.Config.ARGB_8888);
+        drawStaticLayer(new Canvas(mStaticLayer));
+    }
+
+    private void releaseStaticLayer() {
+        if (mStaticLayer != null) {
+            mStaticLayer.recycle();
+            mStaticLayer = null;
+        }
+    }
+
+    private void drawStaticLayer(Canvas canvas) {
         // Draw the background on the entire view.
         // canvas.drawRect(0, 0, mBlockWidth, mBlockHeight, mBackgroundPaint);
 
@@ -214,49 +429,85 @@ public class BoardView extends View implements Board.Listener {
             );
             currentY += mLineWidth + openSpace;
         }
+    }
 
-        // Draw the selected block.
-        if (mBoard != null && mBoard.hasSelectedBlock()) {
-            int selectedBlockX = mBoard.getSelectedBlockX() - 1;
-            int selectedBlockY = mBoard.getSelectedBlockY() - 1;
+    @Override
+    protected void onDraw(Canvas canvas) {
+        super.onDraw(canvas);
 
-            float left = (float) selectedBlockX * ((float) mBlockWidth - mLineWidth) / 9.0f;
-            float top = (float) selectedBlockY * ((float) mBlockHeight - mLineWidth) / 9.0f;
-            float right = (float) (selectedBlockX + 1) * ((float) mBlockWidth - mLineWidth) / 9.0f + mLineWidth;
-            float bottom = (float) (selectedBlockY + 1) * ((float) mBlockHeight - mLineWidth) / 9.0f + mLineWidth;
+        if (DEBUG_DRAW) {
+            Log.d(LOG_TAG, String.format("onDraw: %d -- %d", getWidth(), getHeight()));
+        }
 
-            canvas.drawRect(left, top, right, top + mSelectedLineWidth, mSelectedLinePaint);
-            canvas.drawRect(left, bottom - mSelectedLineWidth, right, bottom, mSelectedLinePaint);
-            canvas.drawRect(left, top + mSelectedLineWidth, left + mSelectedLineWidth, bottom - mSelectedLineWidth, mSelectedLinePaint);
-            canvas.drawRect(right - mSelectedLineWidth, top + mSelectedLineWidth, right, bottom, mSelectedLinePaint);
+        // Draw the boxes and the grid lines.
+        if (mStaticLayer == null) {
+            buildStaticLayer();
+        }
+        if (mStaticLayer != null) {
+            canvas.drawBitmap(mStaticLayer, 0.0f, 0.0f, null);
         }
 
-        // Draw the numbers.
-        if (mBoard != null) {
+        // Draw the numbers, skipping the cells outside the area being repainted.  With hardware
+        // acceleration the clip is the whole view, so only software rendering skips any.
+        if (mBoard != null && canvas.getClipBounds(mClipRect)) {
             int selectedNumber = mBoard.getActionNumber();
             for (int y = 0; y < 9; ++y) {
                 for (int x = 0; x < 9; ++x) {
                     int number = mBoard.getNumberAt(x + 1, y + 1);
-                    if (number == 0)
+                    int marks = number == 0 ? mBoard.getMarksAt(x + 1, y + 1) : 0;
+                    if (number == 0 && marks == 0)
+                        continue;
+
+                    getCellRect(x, y, mCellRect);
+                    if (!Rect.intersects(mClipRect, mCellRect))
+                        continue;
+
+                    if (number == 0) {
+                        drawMarks(
+                                canvas,
+                                marks,
+                                (float) x * ((float) mBlockWidth - mLineWidth) / 9.0f + mLineWidth,
+                                (float) y * ((float) mBlockHeight - mLineWidth) / 9.0f + mLineWidth
+                        );
                         continue;
+                    }
 
-                    String str = String.format("%d", number);
                     TextPaint textPaint = (selectedNumber == number) ? mSelectedTextPaint : mTextPaint;
-                    textPaint.getTextBounds(str, 0, 1, mBoundsRect);
 
                     float left = (float) x * ((float) mBlockWidth - mLineWidth) / 9.0f + mLineWidth;
                     float top = (float) y * ((float) mBlockHeight - mLineWidth) / 9.0f + mLineWidth;
                     float right = (float) (x + 1) * ((float) mBlockWidth - mLineWidth) / 9.0f;
                     float bottom = (float) (y + 1) * ((float) mBlockHeight - mLineWidth) / 9.0f;
+
+                    if (mBoard.isConflict(x + 1, y + 1)) {
+                        canvas.drawRect(left, top, right, bottom, mConflictPaint);
+                    }
+
                     canvas.drawText(
-                            str,
-                            left + (right - left) / 2.0f - (float) (mBoundsRect.centerX()),
-                            top + (bottom - top) / 2.0f - (float) (mBoundsRect.centerY()),
+                            NUMBER_STRINGS[number],
+                            left + (right - left) / 2.0f - mNumberOffsetX[number],
+                            top + (bottom - top) / 2.0f - mNumberOffsetY[number],
                             textPaint
                     );
                 }
             }
         }
+
+        // Draw the selected block on top.
+        if (mBoard != null && mBoard.hasSelectedBlock()) {
+            int selectedBlockX = mBoard.getSelectedBlockX() - 1;
+            int selectedBlockY = mBoard.getSelectedBlockY() - 1;
+
+            float left = (float) selectedBlockX * ((float) mBlockWidth - mLineWidth) / 9.0f;
+            float top = (float) selectedBlockY * ((float) mBlockHeight - mLineWidth) / 9.0f;
+            float right = (float) (selectedBlockX + 1) * ((float) mBlockWidth - mLineWidth) / 9.0f + mLineWidth;
+            float bottom = (float) (selectedBlockY + 1) * ((float) mBlockHeight - mLineWidth) / 9.0f + mLineWidth;
+
+            canvas.drawRect(left, top, right, top + mSelectedLineWidth, mSelectedLinePaint);
+            canvas.drawRect(left, bottom - mSelectedLineWidth, right, bottom, mSelectedLinePaint);
+            canvas.drawRect(left, top + mSelectedLineWidth, left + mSelectedLineWidth, bottom - mSelectedLineWidth, mSelectedLinePaint);
+            canvas.drawRect(right - mSelectedLineWidth, top + mSelectedLineWidth, right, bottom, mSelectedLinePaint);
+        }
     }
 
     @Override
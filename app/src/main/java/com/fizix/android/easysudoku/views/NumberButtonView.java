@@ -13,6 +13,7 @@ import android.util.AttributeSet;
 import android.util.DisplayMetrics;
 import android.view.MotionEvent;
 import android.view.View;
+import android.view.ViewConfiguration;
 
 import com.fizix.android.easysudoku.R;
 
@@ -26,6 +27,7 @@ public class NumberButtonView extends View {
     private Paint mButtonPaint;
     private Paint mButtonPaintSelected;
     private Paint mButtonOutlinePaint;
+    private Paint mButtonOutlineNotesPaint;
 
     // The paint we use for the label.
     private TextPaint mLabelPaint;
@@ -39,12 +41,31 @@ public class NumberButtonView extends View {
     // The rect we use to draw the outline of the button.
     private RectF mOutlineRect;
 
+    // Whether the buttons fill in pencil marks instead of numbers.
+    private boolean mNotesMode;
+
+    // Set once a press turned into a long press, so lifting the finger does not also select.
+    private boolean mLongPressed;
+
     public interface SelectListener {
         void onNumberButtonSelected(int number);
+
+        // A long press on any button toggles notes mode.
+        void onNumberButtonLongPressed(int number);
     }
 
     private SelectListener mSelectListener = null;
 
+    private final Runnable mLongPressRunnable = new Runnable() {
+        @Override
+        public void run() {
+            mLongPressed = true;
+            if (mSelectListener != null) {
+                mSelectListener.onNumberButtonLongPressed(mNumber);
+            }
+        }
+    };
+
     public NumberButtonView(Context context) {
         super(context);
         init(null, 0);
@@ -83,6 +104,9 @@ public class NumberButtonView extends View {
         mButtonOutlinePaint.setStrokeWidth(mLineWidth);
         mButtonOutlinePaint.setStyle(Paint.Style.STROKE);
 
+        mButtonOutlineNotesPaint = new Paint(mButtonOutlinePaint);
+        mButtonOutlineNotesPaint.setColor(Color.rgb(63, 81, 181));
+
         mLabelPaint = new TextPaint();
         mLabelPaint.setColor(Color.BLACK);
         mLabelPaint.setFlags(Paint.ANTI_ALIAS_FLAG);
@@ -108,7 +132,7 @@ public class NumberButtonView extends View {
 
         // Draw a border around the button.
         canvas.drawRoundRect(mOutlineRect, 50.0f, 50.0f, isSelected() ? mButtonPaintSelected : mButtonPaint);
-        canvas.drawRoundRect(mOutlineRect, 50.0f, 50.0f, mButtonOutlinePaint);
+        canvas.drawRoundRect(mOutlineRect, 50.0f, 50.0f, mNotesMode ? mButtonOutlineNotesPaint : mButtonOutlinePaint);
 
         // Draw the label on the button.
         String label = String.valueOf(mNumber);
@@ -129,9 +153,19 @@ public class NumberButtonView extends View {
 
         switch (action) {
             case MotionEvent.ACTION_DOWN:
+                mLongPressed = false;
+                postDelayed(mLongPressRunnable, ViewConfiguration.getLongPressTimeout());
+                return true;
+
+            case MotionEvent.ACTION_CANCEL:
+                removeCallbacks(mLongPressRunnable);
                 return true;
 
             case MotionEvent.ACTION_UP:
+                removeCallbacks(mLongPressRunnable);
+                if (mLongPressed) {
+                    return true;
+                }
                 setSelected(true);
                 invalidate();
                 if (mSelectListener != null) {
@@ -147,4 +181,15 @@ public class NumberButtonView extends View {
         mSelectListener = selectListener;
     }
 
+    public boolean isNotesMode() {
+        return mNotesMode;
+    }
+
+    public void setNotesMode(boolean notesMode) {
+        if (mNotesMode != notesMode) {
+            mNotesMode = notesMode;
+            invalidate();
+        }
+    }
+
 }
@@ -0,0 +1,47 @@
+package com.fizix.android.easysudoku;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+
+// Puzzles per second of the batch generator for different pool sizes.
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class BatchGeneratorBenchmark {
+
+    private static final int BATCH_SIZE = 64;
+
+    @Param({"1", "2", "4"})
+    public int parallelism;
+
+    private BatchGenerator mBatchGenerator;
+    private long mSeed;
+
+    @Setup
+    public void setUp() {
+        mBatchGenerator = new BatchGenerator(parallelism);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mBatchGenerator.shutdown();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public BatchGenerator.Result generate() {
+        return mBatchGenerator.generate(BATCH_SIZE, Board.DIFFICULTY_MEDIUM, mSeed++);
+    }
+
+}
@@ -0,0 +1,40 @@
+package com.fizix.android.easysudoku;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+// The work BoardPersister.createNew() does in the background for every difficulty when the puzzle
+// queue is empty.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GeneratorBenchmark {
+
+    @Param({"1", "2", "3"})
+    public int difficulty;
+
+    private Generator mGenerator;
+    private final byte[] mPuzzle = new byte[81];
+    private final byte[] mSolution = new byte[81];
+
+    @Setup
+    public void setUp() {
+        mGenerator = new Generator(new Random(42));
+    }
+
+    @Benchmark
+    public int createNew() {
+        return mGenerator.generate(mPuzzle, mSolution, difficulty);
+    }
+
+}
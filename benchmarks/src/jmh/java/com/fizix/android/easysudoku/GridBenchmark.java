@@ -0,0 +1,57 @@
+package com.fizix.android.easysudoku;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+// Filling and shuffling the grid a new board starts from.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class GridBenchmark {
+
+    private final byte[] mGrid = new byte[81];
+    private Generator mGenerator;
+    private int mCounter;
+
+    @Setup
+    public void setUp() {
+        Generator.fillGrid(mGrid);
+        mGenerator = new Generator(new Random(42));
+    }
+
+    @Benchmark
+    public byte[] fillBoard() {
+        Generator.fillGrid(mGrid);
+        return mGrid;
+    }
+
+    @Benchmark
+    public byte[] swapRows() {
+        final int band = (mCounter++ % 3) * 3;
+        Generator.swapRows(mGrid, band, band + 1);
+        return mGrid;
+    }
+
+    @Benchmark
+    public byte[] swapColumns() {
+        final int stack = (mCounter++ % 3) * 3;
+        Generator.swapColumns(mGrid, stack, stack + 2);
+        return mGrid;
+    }
+
+    @Benchmark
+    public byte[] shuffle() {
+        mGenerator.shuffle(mGrid);
+        return mGrid;
+    }
+
+}
@@ -0,0 +1,33 @@
+package com.fizix.android.easysudoku;
+
+
+// A fixed corpus of well known hard puzzles, so solver results can be compared between runs.
+final class HardPuzzles {
+
+    static final String[] PUZZLES = {
+            "800000000003600000070090200050007000000045700000100030001000068008500010090000400",
+            "4.....8.5.3..........7......2.....6.....8.4......1.......6.3.7.5..2.....1.4......",
+            "52...6.........7.13...........4..8..6......5...........418.........3..2...87.....",
+            "6.....8.3.4.7.................5.4.7.3..2.....1.6.......2.....5.....8.6......1....",
+            "48.3............71.2.......7.5....6....2..8.............1.76...3.....4......5....",
+            "....14....3....2...7..........9...3.6.1.............8.2.....1.4....5.6.....7.8...",
+            "..53.....8......2..7..1.5..4....53...1..7...6..32...8..6.5....9..4....3......97..",
+            "12.3....435....1....4........54..2..6...7.........8.9...31..5.......9.7.....6...8",
+            "1....7.9..3..2...8..96..5....53..9...1..8...26....4...3......1..4......7..7...3..",
+    };
+
+    private HardPuzzles() {
+    }
+
+    static byte[][] load() {
+        byte[][] puzzles = new byte[PUZZLES.length][81];
+        for (int p = 0; p < PUZZLES.length; p++) {
+            for (int i = 0; i < 81; i++) {
+                final char c = PUZZLES[p].charAt(i);
+                puzzles[p][i] = (byte) (c == '.' ? 0 : c - '0');
+            }
+        }
+        return puzzles;
+    }
+
+}
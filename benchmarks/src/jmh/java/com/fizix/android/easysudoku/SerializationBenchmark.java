@@ -0,0 +1,66 @@
+package com.fizix.android.easysudoku;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+
+// Taking and restoring snapshots of the board state, and the packed format boards are saved in.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SerializationBenchmark {
+
+    private final Grid mGrid = new Grid();
+    private final Grid mSnapshot = new Grid();
+    private final byte[] mNumbers = new byte[81];
+    private final byte[] mPacked = new byte[Grid.PACKED_SIZE];
+
+    @Setup
+    public void setUp() {
+        mGrid.setNumbers(HardPuzzles.load()[0], true);
+        mGrid.pack(mPacked);
+    }
+
+    @Benchmark
+    public Grid snapshot() {
+        mSnapshot.copyFrom(mGrid);
+        return mSnapshot;
+    }
+
+    @Benchmark
+    public byte[] copyNumbers() {
+        mGrid.copyNumbers(mNumbers);
+        return mNumbers;
+    }
+
+    @Benchmark
+    public Grid setNumbers() {
+        mGrid.copyNumbers(mNumbers);
+        mSnapshot.setNumbers(mNumbers, true);
+        return mSnapshot;
+    }
+
+    @Benchmark
+    public byte[] pack() {
+        mGrid.pack(mPacked);
+        return mPacked;
+    }
+
+    @Benchmark
+    public boolean unpack() {
+        return mSnapshot.unpack(mPacked);
+    }
+
+    @Benchmark
+    public int hash() {
+        return mGrid.hashCode();
+    }
+
+}
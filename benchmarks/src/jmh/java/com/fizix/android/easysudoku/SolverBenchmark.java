@@ -0,0 +1,50 @@
+package com.fizix.android.easysudoku;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.concurrent.TimeUnit;
+
+
+// Solving, counting and rating the hard puzzle corpus.
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SolverBenchmark {
+
+    @Param({"0", "1", "2", "3", "4", "5", "6", "7", "8"})
+    public int puzzle;
+
+    private final Solver mSolver = new Solver();
+    private final Rater mRater = new Rater();
+    private byte[] mPuzzle;
+
+    @Setup
+    public void setUp() {
+        mPuzzle = HardPuzzles.load()[puzzle];
+    }
+
+    @Benchmark
+    public boolean solve() {
+        mSolver.setPuzzle(mPuzzle);
+        return mSolver.solve();
+    }
+
+    @Benchmark
+    public int countSolutions() {
+        mSolver.setPuzzle(mPuzzle);
+        return mSolver.countSolutions(2);
+    }
+
+    @Benchmark
+    public int rate() {
+        return mRater.rate(mPuzzle);
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.fizix.android.easysudoku;
+
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+
+// Generates a batch of puzzles across all cores with a ForkJoinPool.  The batch is split into
+// chunks and every chunk gets its own Generator, so the workers share no mutable state.  Every
+// puzzle is generated from its own seed, derived from the batch seed and its position, so a batch
+// comes out the same however the work is scheduled.  Meant for building puzzle packs offline, so
+// it lives with the benchmarks on the desktop JVM; ForkJoinPool needs API 21 on devices.
+public class BatchGenerator {
+
+    // The number of puzzles a single task generates before it stops splitting.
+    private static final int CHUNK_SIZE = 16;
+
+    private final ForkJoinPool mPool;
+
+    public static class Result {
+        // The puzzles and their solutions, 81 numbers each, packed back to back.
+        public final byte[] puzzles;
+        public final byte[] solutions;
+
+        public final int count;
+        public final int parallelism;
+        public final long elapsedNanos;
+
+        Result(int count, int parallelism, long elapsedNanos, byte[] puzzles, byte[] solutions) {
+            this.count = count;
+            this.parallelism = parallelism;
+            this.elapsedNanos = elapsedNanos;
+            this.puzzles = puzzles;
+            this.solutions = solutions;
+        }
+
+        public double getPuzzlesPerSecond() {
+            return elapsedNanos == 0 ? 0.0 : count * 1000000000.0 / elapsedNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d puzzles in %.1f ms on %d threads (%.1f puzzles/s)",
+                    count, elapsedNanos / 1000000.0, parallelism, getPuzzlesPerSecond());
+        }
+    }
+
+    public BatchGenerator() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchGenerator(int parallelism) {
+        mPool = new ForkJoinPool(parallelism);
+    }
+
+    public int getParallelism() {
+        return mPool.getParallelism();
+    }
+
+    // Generate |count| puzzles for |difficulty|.  Puzzle i is the one Generator makes from
+    // getPuzzleSeed(seed, i).
+    public Result generate(int count, int difficulty, long seed) {
+        final byte[] puzzles = new byte[count * 81];
+        final byte[] solutions = new byte[count * 81];
+
+        final long startTime = System.nanoTime();
+        mPool.invoke(new GenerateTask(puzzles, solutions, 0, count, difficulty, seed));
+        final long elapsedNanos = System.nanoTime() - startTime;
+
+        return new Result(count, mPool.getParallelism(), elapsedNanos, puzzles, solutions);
+    }
+
+    public void shutdown() {
+        mPool.shutdown();
+    }
+
+    // The seed of puzzle |index| of a batch generated from |seed|.
+    public static long getPuzzleSeed(long seed, int index) {
+        return Generator.mix(seed + index);
+    }
+
+    private static class GenerateTask extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final byte[] mPuzzles;
+        private final byte[] mSolutions;
+        private final int mStart;
+        private final int mEnd;
+        private final int mDifficulty;
+        private final long mSeed;
+
+        GenerateTask(byte[] puzzles, byte[] solutions, int start, int end, int difficulty, long seed) {
+            mPuzzles = puzzles;
+            mSolutions = solutions;
+            mStart = start;
+            mEnd = end;
+            mDifficulty = difficulty;
+            mSeed = seed;
+        }
+
+        @Override
+        protected void compute() {
+            if (mEnd - mStart > CHUNK_SIZE) {
+                // Split on a chunk boundary so the chunks do not depend on how the pool happens to
+                // schedule the work.
+                final int middle = mStart + Math.max(1, (mEnd - mStart) / CHUNK_SIZE / 2) * CHUNK_SIZE;
+                invokeAll(
+                        new GenerateTask(mPuzzles, mSolutions, mStart, middle, mDifficulty, mSeed),
+                        new GenerateTask(mPuzzles, mSolutions, middle, mEnd, mDifficulty, mSeed));
+                return;
+            }
+
+            final Generator generator = new Generator(new Random());
+            final byte[] puzzle = new byte[81];
+            final byte[] solution = new byte[81];
+            for (int i = mStart; i < mEnd; i++) {
+                generator.generate(puzzle, solution, mDifficulty, getPuzzleSeed(mSeed, i));
+                System.arraycopy(puzzle, 0, mPuzzles, i * 81, 81);
+                System.arraycopy(solution, 0, mSolutions, i * 81, 81);
+            }
+        }
+    }
+
+}